@@ -1,12 +1,14 @@
 import minet.Dataset;
+import minet.data.PrefetchingDataset;
 import minet.layer.*;
 import minet.layer.Linear.WeightInitXavier;
-import minet.loss.CrossEntropy;
 import minet.loss.Loss;
+import minet.loss.SoftmaxCrossEntropy;
 import minet.optim.Optimizer;
 import minet.optim.SGD;
 import minet.util.Pair;
 import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
 import org.jblas.util.Logger;
 
 import java.io.IOException;
@@ -17,6 +19,14 @@ import java.util.Random;
 public class Part1 {
 
     public static void train(Layer net, Loss loss, Optimizer optimizer, Dataset traindata, Dataset devdata, int batchsize, int nEpochs, int patience, Random rnd) {
+        train(net, loss, optimizer, traindata, devdata, batchsize, nEpochs, patience, rnd, Precision.DOUBLE);
+    }
+
+    /**
+     * Same as above; with {@link Precision#FLOAT} (the precision of net), the minibatches,
+     * the network and the loss all work on single precision matrices.
+     */
+    public static void train(Layer net, Loss loss, Optimizer optimizer, Dataset traindata, Dataset devdata, int batchsize, int nEpochs, int patience, Random rnd, Precision precision) {
 
         System.out.println("Training...");
 
@@ -33,7 +43,19 @@ public class Part1 {
             // loss function value on evaluated examples in this epoch
             totalLoss = 0;
 
-            while (true) {
+            while (precision == Precision.FLOAT) {
+                Pair<FloatMatrix> batch = traindata.getNextFloatMiniBatch(batchsize);
+                if (batch == null) {
+                    break;
+                }
+                optimizer.resetGradients();
+                lossVal = loss.forward(batch.second, net.forward(batch.first));
+                net.backward(loss.floatBackward());
+                optimizer.updateWeights();
+                totalLoss = totalLoss + lossVal;
+            }
+
+            while (precision == Precision.DOUBLE) {
 
                 // get the next mini-batch
                 Pair<DoubleMatrix> batch = traindata.getNextMiniBatch(batchsize);
@@ -90,6 +112,7 @@ public class Part1 {
     public static double eval(Layer net, Dataset data, int batchsize) {
 
         data.reset(); // move pointer to beginning of dataset
+        net.setTraining(false); // nothing needs to be kept for backward
         double correct = 0; // for counting how many predictions are correct
         int size = 0;
 
@@ -111,14 +134,17 @@ public class Part1 {
             size = batch.second.rows;
 
             // counts how many predictions are correct
+            int[] predicted = Yhat.rowArgmaxs();
             for (int i = 0; i < size; i++) {
-                if (batch.second.get(i) == Yhat.rowArgmaxs()[i]) {
+                if (batch.second.get(i) == predicted[i]) {
                     correct = correct + 1.0; 
                 }
             }
 
         }
 
+        net.setTraining(true);
+
         // computes accuracy
         double acc = correct / data.getSize();
 
@@ -136,9 +162,14 @@ public class Part1 {
 
         // read datasets
         System.out.println("Loading data...");
-        Dataset trainset = Dataset.loadTxt(args[1]);
+        // training minibatches are assembled in the background while the network computes
+        Dataset trainset = new PrefetchingDataset(Dataset.loadTxt(args[1]));
         Dataset devset = Dataset.loadTxt(args[2]);
         Dataset testset = Dataset.loadTxt(args[3]);
+        // most pixels are zero: the first layer only reads the weights of the nonzero ones
+        trainset.setSparseInputs(true);
+        devset.setSparseInputs(true);
+        testset.setSparseInputs(true);
         //System.out.printf("train: %d instances\n", trainset.getSize());
         //System.out.printf("dev: %d instances\n", devset.getSize());
         //System.out.printf("test: %d instances\n", testset.getSize());
@@ -151,12 +182,19 @@ public class Part1 {
         Sequential net = new Sequential(new Layer[] {
             new Linear(indims, hiddims, new WeightInitXavier()),
             new Sigmoid(), // activation function
-            new Linear(hiddims, outdims, new WeightInitXavier()),
-            new Softmax()
+            new Linear(hiddims, outdims, new WeightInitXavier())
         });
 
-        // cross entropy loss function to be passed into train function
-        CrossEntropy loss = new CrossEntropy();
+        // the input is data: the first layer does not need to compute its gradient
+        ((Linear) net.getLayers()[0]).setInputGradient(false);
+
+        // an optional 5th argument "float" trains in single precision
+        Precision precision = args.length > 4 && args[4].equals("float") ? Precision.FLOAT : Precision.DOUBLE;
+        net.setPrecision(precision);
+
+        // softmax + cross entropy loss function to be passed into train function
+        // (fused, on the logits output by the network)
+        SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
 
         // default = 1.0
         double learningRate = 1.0;
@@ -167,8 +205,11 @@ public class Part1 {
         int nEpochs = 50;
         int patience = 5;
 
+        // the layers reuse their matrices from one minibatch to the next
+        net.createWorkspace(batchsize, indims);
+
         // calls the train function
-        train(net, loss, sgd, trainset, devset, batchsize, nEpochs, patience, rnd);
+        train(net, loss, sgd, trainset, devset, batchsize, nEpochs, patience, rnd, precision);
 
         double testAcc = eval(net, testset, batchsize);
 
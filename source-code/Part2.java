@@ -1,8 +1,9 @@
 import minet.Dataset;
+import minet.data.PrefetchingDataset;
 import minet.layer.*;
 import minet.layer.Linear.WeightInitXavier;
-import minet.loss.CrossEntropy;
 import minet.loss.Loss;
+import minet.loss.SoftmaxCrossEntropy;
 import minet.loss.MeanSquaredError;
 import minet.optim.Optimizer;
 import minet.optim.SGD;
@@ -90,6 +91,7 @@ public class Part2 {
     public static double eval(Layer net, Dataset data, int batchsize) {
 
         data.reset(); // move pointer to beginning of dataset
+        net.setTraining(false); // nothing needs to be kept for backward
         double correct = 0; // for counting how many predictions are correct
         int size = 0;
 
@@ -111,14 +113,17 @@ public class Part2 {
             size = batch.second.rows;
 
             // counts how many predictions are correct
+            int[] predicted = Yhat.rowArgmaxs();
             for (int i = 0; i < size; i++) {
-                if (batch.second.get(i) == Yhat.rowArgmaxs()[i]) {
+                if (batch.second.get(i) == predicted[i]) {
                     correct = correct + 1.0;
                 }
             }
 
         }
 
+        net.setTraining(true);
+
         // computes accuracy
         double acc = correct / data.getSize();
 
@@ -150,7 +155,8 @@ public class Part2 {
 
         // read datasets
         System.out.println("Loading data...");
-        Dataset trainset = Dataset.loadTxt(args[1]);
+        // training minibatches are assembled in the background while the network computes
+        Dataset trainset = new PrefetchingDataset(Dataset.loadTxt(args[1]));
         Dataset devset = Dataset.loadTxt(args[2]);
         Dataset testset = Dataset.loadTxt(args[3]);
         //System.out.printf("train: %d instances\n", trainset.getSize());
@@ -165,12 +171,12 @@ public class Part2 {
         Sequential net = new Sequential(new Layer[] {
             new Linear(indims, hiddims, new WeightInitXavier()),
             actFunc, // activation function
-            new Linear(hiddims, outdims, new WeightInitXavier()),
-            new Softmax()
+            new Linear(hiddims, outdims, new WeightInitXavier())
         });
 
-        // cross entropy loss function to be passed into train function
-        CrossEntropy loss = new CrossEntropy();
+        // softmax + cross entropy loss function to be passed into train function
+        // (fused, on the logits output by the network)
+        SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
 
         // default = 1.0
         double learningRate = 1.0;
@@ -1,4 +1,5 @@
 import minet.Dataset;
+import minet.data.PrefetchingDataset;
 import minet.layer.*;
 import minet.layer.Linear.WeightInitXavier;
 import minet.loss.CrossEntropy;
@@ -6,6 +7,7 @@ import minet.loss.Loss;
 import minet.loss.MeanSquaredError;
 import minet.optim.Optimizer;
 import minet.optim.SGD;
+import minet.train.GradientAccumulator;
 import minet.util.Pair;
 import org.jblas.DoubleMatrix;
 import org.jblas.util.Logger;
@@ -17,54 +19,36 @@ import java.util.Random;
 public class Part3 {
 
     public static void train(Layer net, Loss loss, Optimizer optimizer, Dataset traindata, Dataset devdata, int batchsize, int nEpochs, int patience, Random rnd) {
+        train(net, loss, optimizer, traindata, devdata, batchsize, batchsize, nEpochs, patience, rnd);
+    }
+
+    /**
+     * Train a network, running each mini-batch through it microbatchsize instances at a time, with the gradients accumulated before one update (see GradientAccumulator),
+     * so that memory is bounded by microbatchsize however large batchsize is.
+     */
+    public static void train(Layer net, Loss loss, Optimizer optimizer, Dataset traindata, Dataset devdata, int batchsize, int microbatchsize, int nEpochs, int patience, Random rnd) {
 
         // System.out.println("Training...");
 
         int notAtPeak = 0; // number of epochs since last peak
         double peakAcc = -1; // the best accuracy so far
         double totalLoss = 0; // the total loss of the current epoch
-        double lossVal; // the loss value at each epoch
+        GradientAccumulator trainer = new GradientAccumulator(net, loss, optimizer, microbatchsize);
 
         for (int e = 0; e < nEpochs; e++) {
 
             // System.out.printf("\nepoch %d:\n", e);
             // always shuffle the data between each epoch
             traindata.shuffle(rnd);
-            // loss function value on evaluated examples in this epoch
-            totalLoss = 0;
-
-            while (true) {
-
-                // get the next mini-batch
-                Pair<DoubleMatrix> batch = traindata.getNextMiniBatch(batchsize);
-                if (batch == null) {
-                    break;
-                }
-
-                // always reset the gradients before performing backward
-                optimizer.resetGradients();
-
-                DoubleMatrix Yhat = net.forward(batch.first);
 
-                // calculate the loss value then save it to a variable called lossVal
-                lossVal = loss.forward(batch.second, Yhat);
-                //System.out.println("Loss Value: " + lossVal);
-
-                // calculate the network weights' gradients using backprop
-                net.backward(loss.backward());
-
-                // update network weights using the calculated gradients
-                optimizer.updateWeights();
-
-                // update totalLoss
-                totalLoss = totalLoss + lossVal;
-
-            }
+            // for each mini-batch: reset the gradients, forward and backward on each
+            // micro-batch, then update the network weights once
+            totalLoss = trainer.trainEpoch(traindata, batchsize);
 
             // System.out.printf("total loss: %.6f\n", totalLoss);
 
             // check if accuracy of devdata is the same of lower for 'patience' number of times
-            double acc = eval(net, devdata, batchsize);
+            double acc = eval(net, devdata, microbatchsize);
 
             // System.out.printf("accuracy: %.6f\n", acc);
 
@@ -90,6 +74,7 @@ public class Part3 {
     public static double eval(Layer net, Dataset data, int batchsize) {
 
         data.reset(); // move pointer to beginning of dataset
+        net.setTraining(false); // nothing needs to be kept for backward
         double correct = 0; // for counting how many predictions are correct
         int size = 0;
 
@@ -111,14 +96,17 @@ public class Part3 {
             size = batch.second.rows;
 
             // counts how many predictions are correct
+            int[] predicted = Yhat.rowArgmaxs();
             for (int i = 0; i < size; i++) {
-                if (batch.second.get(i) == Yhat.rowArgmaxs()[i]) {
+                if (batch.second.get(i) == predicted[i]) {
                     correct = correct + 1.0;
                 }
             }
 
         }
 
+        net.setTraining(true);
+
         // computes accuracy
         double acc = correct / data.getSize();
 
@@ -136,7 +124,8 @@ public class Part3 {
 
         // read datasets
         // System.out.println("Loading data...");
-        Dataset trainset = Dataset.loadTxt(args[1]);
+        // training minibatches are assembled in the background while the network computes
+        Dataset trainset = new PrefetchingDataset(Dataset.loadTxt(args[1]));
         Dataset devset = Dataset.loadTxt(args[2]);
         Dataset testset = Dataset.loadTxt(args[3]);
         //System.out.printf("train: %d instances\n", trainset.getSize());
@@ -150,6 +139,7 @@ public class Part3 {
         int outdims = 10;
 
         int batchsize = 1000;
+        int microbatchsize = 500; // the largest number of instances run through the network at once
         int nEpochs = 50;
         int patience = 5;
         double testAcc;
@@ -178,7 +168,7 @@ public class Part3 {
                     for (int l = 0; l < lossFunctions.length; l++) {
 
                         // trains the network
-                        train(net, lossFunctions[l], sgd, trainset, devset, batchSizes[j], nEpochs, patience, rnd);
+                        train(net, lossFunctions[l], sgd, trainset, devset, batchSizes[j], Math.min(batchSizes[j], microbatchsize), nEpochs, patience, rnd);
                         // calculates the accuracy of the trained network on the test set
                         testAcc = eval(net, testset, batchsize);
                         //System.out.println("Using " + activationFunctions[i].toString() + "as the activation function, " + Integer.toString(batchSizes[j]) + " as the batch size, " + Double.toString(learningRates[k]) + "as the learning rate, and " + lossFunctions[l].toString() + "as the loss function, the test accuracy was " + testAcc);
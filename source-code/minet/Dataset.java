@@ -2,27 +2,83 @@
 // Dataset class
 package minet;
 
+import minet.data.BinaryFormat;
+import minet.data.CompactDataset;
+import minet.data.DatasetCache;
+import minet.data.MappedDataset;
+import minet.util.CsrMatrix;
+import minet.util.Matrices;
 import minet.util.Pair;
 import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Random;
 
 /**
  * Dataset class for holding a set of (x, y) instances.
+ *
+ * The instances are stored row by row in two contiguous arrays. Shuffling permutes
+ * an index array, and minibatches are gathered into preallocated matrices which are
+ * refilled by each call of {@link #getNextMiniBatch(int)}.
  * @author Phong Le
  */
 public class Dataset {
 
-    int currIndex;
-    double[][] X;
-    double[][] Y;
+    // rows gathered per block when filling a (column-major) minibatch
+    protected static final int GATHER_BLOCK = 8;
+
+    protected int currIndex;
+    protected int size;
+    protected int xDims;
+    protected int yDims;
+    double[] X;   // [size x xDims], row by row
+    double[] Y;   // [size x yDims], row by row
+    protected int[] order;  // order[i] is the row at position i
+
+    // minibatch matrices, reused from one call of getNextMiniBatch to the next
+    Pair<DoubleMatrix> batch;
+    Pair<DoubleMatrix> tailBatch;
+    Pair<FloatMatrix> floatBatch;      // single precision minibatch matrices
+    Pair<FloatMatrix> floatTailBatch;
+    protected boolean sparseInputs;  // see setSparseInputs
 
     public Dataset(double[][] X, double[][] Y) {
+        this(X.length, X.length > 0 ? X[0].length : 0, Y.length > 0 ? Y[0].length : 0);
+        this.X = new double[this.size * this.xDims];
+        this.Y = new double[this.size * this.yDims];
+        for (int i = 0; i < this.size; i++) {
+            System.arraycopy(X[i], 0, this.X, i * this.xDims, this.xDims);
+            System.arraycopy(Y[i], 0, this.Y, i * this.yDims, this.yDims);
+        }
+    }
+
+    /**
+     * @param X a [size x xDims] array, row by row
+     * @param Y a [size x yDims] array, row by row
+     */
+    public Dataset(int size, int xDims, int yDims, double[] X, double[] Y) {
+        this(size, xDims, yDims);
         this.X = X;
         this.Y = Y;
+    }
+
+    /**
+     * For subclasses which keep their instances somewhere else than in X and Y.
+     * Such subclasses must override {@link #getInputRow(int, double[])},
+     * {@link #getOutputRow(int, double[])} and {@link #fillMiniBatch(int, int, DoubleMatrix, DoubleMatrix, int)}.
+     */
+    protected Dataset(int size, int xDims, int yDims) {
+        this.size = size;
+        this.xDims = xDims;
+        this.yDims = yDims;
+        this.order = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.order[i] = i;
+        }
         this.currIndex = 0;
     }
 
@@ -41,32 +97,62 @@ public class Dataset {
      * @throws IOException
      */
     public static Dataset loadTxt(String path) throws IOException {
+        return loadTxt(path, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Same as {@link #loadTxt(String)}, using the given number of threads.
+     * A binary snapshot of the parsed file is cached on disk (see {@link DatasetCache}),
+     * so that later loads of the same, unchanged file do not parse it again.
+     */
+    public static Dataset loadTxt(String path, int nThreads) throws IOException {
         // first line: [number of samples] [xDims] [yDims]
         // each line of file : [entries of X] ; [entries of Y]
-        BufferedReader br = new BufferedReader(new FileReader(path));
+        // the file is parsed in parallel (see TxtParser)
+        return DatasetCache.loadTxt(path, nThreads);
+    }
 
-        // first line
-        String[] ss = br.readLine().split(" ");
-        int size = Integer.valueOf(ss[0]);
-        int xDims = Integer.valueOf(ss[1]);
-        int yDims = Integer.valueOf(ss[2]);
+    /**
+     * Loading instances stored in a binary file (see {@link BinaryFormat}) onto the heap.
+     * @param path a string, the path of the binary file.
+     * @return a Dataset
+     * @throws IOException
+     */
+    public static Dataset loadBinary(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return BinaryFormat.read(ch, path, 0);
+        }
+    }
 
-        double[][] X = new double[size][xDims];
-        double[][] Y = new double[size][yDims];
+    /**
+     * Map a binary file (see {@link BinaryFormat}) into memory without loading it.
+     * Rows are copied onto the heap only when a minibatch needs them.
+     * @param path a string, the path of the binary file.
+     * @return a Dataset
+     * @throws IOException
+     */
+    public static Dataset mmap(String path) throws IOException {
+        return new MappedDataset(path);
+    }
 
-        for (int i = 0; i < size; i++) {
-            ss = br.readLine().split(" ; ");
-            String[] sx = ss[0].split(" ");
-            String[] sy = ss[1].split(" ");
-            for (int j = 0; j < sx.length; j++) {
-                X[i][j] = Double.valueOf(sx[j]);
-            }
-            for (int j = 0; j < sy.length; j++) {
-                Y[i][j] = Double.valueOf(sy[j]);
-            }
-        }
+    /**
+     * Save the instances to a binary file (see {@link BinaryFormat}), which can then be
+     * loaded by {@link #loadBinary(String)} or {@link #mmap(String)}.
+     * @param path a string, the path of the binary file.
+     * @throws IOException
+     */
+    public void saveBinary(String path) throws IOException {
+        BinaryFormat.write(this, path);
+    }
 
-        return new Dataset(X, Y);
+    /**
+     * Get a copy of this dataset storing each input entry in one byte instead of a
+     * double (see {@link CompactDataset}). Input entries must be 8-bit values, e.g.
+     * MNIST pixels scaled to [0, 1].
+     * @return a CompactDataset
+     */
+    public Dataset compact() {
+        return new CompactDataset(this);
     }
 
     /**
@@ -80,32 +166,42 @@ public class Dataset {
      * Get the number of the instances stored.
      */
     public int getSize() {
-        return X.length;
+        return this.size;
     }
 
     public int getInputDims() {
-        return X[0].length;
+        return this.xDims;
     }
 
     public int getOutDims() {
-        return Y[0].length;
+        return this.yDims;
+    }
+
+    /**
+     * Copy the x of the i-th instance (in the current order) into row.
+     */
+    public void getInputRow(int i, double[] row) {
+        System.arraycopy(X, this.order[i] * this.xDims, row, 0, this.xDims);
+    }
+
+    /**
+     * Copy the y of the i-th instance (in the current order) into row.
+     */
+    public void getOutputRow(int i, double[] row) {
+        System.arraycopy(Y, this.order[i] * this.yDims, row, 0, this.yDims);
     }
 
     /**
      * Should be called before each epoch.
      */
-    public void shuffle(Random rnd) {               
+    public void shuffle(Random rnd) {
         for (int i = this.getSize() - 1; i > 0; i--)
         {
             int index = rnd.nextInt(i + 1);
             // Simple swap
-            double[] tmp = X[i];
-            X[i] = X[index];
-            X[index] = tmp;
-
-            tmp = Y[i];
-            Y[i] = Y[index];
-            Y[index] = tmp;
+            int tmp = this.order[i];
+            this.order[i] = this.order[index];
+            this.order[index] = tmp;
         }
         this.currIndex = 0;
     }
@@ -116,7 +212,20 @@ public class Dataset {
     }
 
     /**
-     * Get a minibatch.
+     * Make the inputs of the minibatches {@link CsrMatrix} matrices, whose index of nonzero
+     * entries is built along with the minibatch, so that the first {@link minet.layer.Linear}
+     * layer of a network skips the zero inputs (e.g. most MNIST pixels).
+     * @param sparse whether to index the inputs of the minibatches
+     */
+    public void setSparseInputs(boolean sparse) {
+        this.sparseInputs = sparse;
+        this.batch = null;
+        this.tailBatch = null;
+    }
+
+    /**
+     * Get a minibatch. The returned matrices are refilled by the next call,
+     * so they must be copied (e.g. with dup()) to be kept.
      * @return a pair of X and Y
      */
     public Pair<DoubleMatrix> getNextMiniBatch(int batchsize) {
@@ -128,18 +237,148 @@ public class Dataset {
         int start = this.currIndex;
         int end = Math.min(start + batchsize, this.getSize());
         this.currIndex = end;
-      
-        double[][] bX = new double[end - start][];
-        double[][] bY = new double[end - start][];
-        for (int i = start; i < end; i++) {
-            bX[i - start] = X[i];
-            bY[i - start] = Y[i];
-        }        
-
-        return new Pair<DoubleMatrix>(
-                new DoubleMatrix(bX),
-                new DoubleMatrix(bY)
-        );
+
+        Pair<DoubleMatrix> b = this.getBatchBuffer(end - start, end - start == batchsize);
+        this.fillMiniBatch(start, end, b.first, b.second);
+        indexInputs(b.first);
+        return b;
+    }
+
+    /**
+     * Single precision version of {@link #getNextMiniBatch(int)}, e.g. for a network in
+     * {@link minet.layer.Precision#FLOAT}. The rows are gathered directly into single
+     * precision matrices; the minibatches of the subclasses which keep their instances
+     * somewhere else are assembled by their {@link #getNextMiniBatch(int)} (so e.g. still
+     * prefetched or augmented) and copied. The inputs are never in sparse form.
+     * The returned matrices are refilled by the next call.
+     * @return a pair of X and Y
+     */
+    public Pair<FloatMatrix> getNextFloatMiniBatch(int batchsize) {
+        if (this.X == null) {
+            Pair<DoubleMatrix> b = this.getNextMiniBatch(batchsize);
+            if (b == null) {
+                return null;
+            }
+            Pair<FloatMatrix> f = this.getFloatBatchBuffer(b.first.rows, b.first.rows == batchsize);
+            Matrices.copy(b.first, f.first);
+            Matrices.copy(b.second, f.second);
+            return f;
+        }
+        if (this.currIndex >= this.getSize()) {
+            this.currIndex = 0;
+            return null;
+        }
+
+        int start = this.currIndex;
+        int end = Math.min(start + batchsize, this.getSize());
+        this.currIndex = end;
+
+        Pair<FloatMatrix> b = this.getFloatBatchBuffer(end - start, end - start == batchsize);
+        gather(this.X, this.xDims, start, end, b.first.data, b.first.rows, 0);
+        gather(this.Y, this.yDims, start, end, b.second.data, b.second.rows, 0);
+        return b;
+    }
+
+    /**
+     * Single precision version of {@link #getBatchBuffer(int, boolean)}.
+     */
+    Pair<FloatMatrix> getFloatBatchBuffer(int n, boolean full) {
+        Pair<FloatMatrix> b = full ? this.floatBatch : this.floatTailBatch;
+        if (b == null || b.first.rows != n) {
+            b = new Pair<FloatMatrix>(new FloatMatrix(n, this.getInputDims()), new FloatMatrix(n, this.getOutDims()));
+            if (full) {
+                this.floatBatch = b;
+            } else {
+                this.floatTailBatch = b;
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Get the preallocated minibatch matrices with n rows. Full-size batches and the
+     * last (smaller) batch of an epoch are kept apart, so neither is reallocated
+     * from one epoch to the next.
+     */
+    protected Pair<DoubleMatrix> getBatchBuffer(int n, boolean full) {
+        Pair<DoubleMatrix> b = full ? this.batch : this.tailBatch;
+        if (b == null || b.first.rows != n) {
+            b = new Pair<DoubleMatrix>(this.newInputBatch(n), new DoubleMatrix(n, this.getOutDims()));
+            if (full) {
+                this.batch = b;
+            } else {
+                this.tailBatch = b;
+            }
+        }
+        return b;
+    }
+
+    /**
+     * @return a new matrix for the inputs of a minibatch of n instances
+     */
+    protected DoubleMatrix newInputBatch(int n) {
+        return this.sparseInputs ? new CsrMatrix(n, this.getInputDims()) : new DoubleMatrix(n, this.getInputDims());
+    }
+
+    /**
+     * Build the index of the inputs of a filled minibatch, if they are in sparse form.
+     */
+    protected static void indexInputs(DoubleMatrix bX) {
+        if (bX instanceof CsrMatrix) {
+            ((CsrMatrix) bX).index();
+        }
+    }
+
+    /**
+     * Copy the instances at positions [start, end) (in the current order) into
+     * minibatch matrices. This method only reads the dataset, so it can be called
+     * concurrently on different matrices.
+     * @param bX an [(end - start) x input_dims] matrix
+     * @param bY an [(end - start) x out_dims] matrix
+     */
+    public void fillMiniBatch(int start, int end, DoubleMatrix bX, DoubleMatrix bY) {
+        this.fillMiniBatch(start, end, bX, bY, 0);
+    }
+
+    /**
+     * Same as {@link #fillMiniBatch(int, int, DoubleMatrix, DoubleMatrix)}, but writing
+     * rows [offset, offset + end - start) of bX and bY, which may have more rows.
+     */
+    public void fillMiniBatch(int start, int end, DoubleMatrix bX, DoubleMatrix bY, int offset) {
+        gather(this.X, this.xDims, start, end, bX.data, bX.rows, offset);
+        gather(this.Y, this.yDims, start, end, bY.data, bY.rows, offset);
+    }
+
+    /**
+     * Transpose rows order[start..end) of a row-by-row array into a column-major array.
+     * Rows are taken a block at a time so that each column of the block is written
+     * as a short contiguous run.
+     */
+    void gather(double[] src, int dims, int start, int end, double[] dst, int rows, int offset) {
+        int n = end - start;
+        for (int r0 = 0; r0 < n; r0 += GATHER_BLOCK) {
+            int r1 = Math.min(r0 + GATHER_BLOCK, n);
+            for (int j = 0, k = offset; j < dims; j++, k += rows) {
+                for (int r = r0; r < r1; r++) {
+                    dst[k + r] = src[this.order[start + r] * dims + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as above, into a single precision array.
+     */
+    void gather(double[] src, int dims, int start, int end, float[] dst, int rows, int offset) {
+        int n = end - start;
+        for (int r0 = 0; r0 < n; r0 += GATHER_BLOCK) {
+            int r1 = Math.min(r0 + GATHER_BLOCK, n);
+            for (int j = 0, k = offset; j < dims; j++, k += rows) {
+                for (int r = r0; r < r1; r++) {
+                    dst[k + r] = (float) src[this.order[start + r] * dims + j];
+                }
+            }
+        }
     }
 
 }
@@ -6,6 +6,8 @@ import minet.layer.*;
 import minet.loss.CrossEntropy;
 import minet.loss.Loss;
 import minet.loss.MeanSquaredError;
+import minet.loss.SoftmaxCrossEntropy;
+import minet.util.CsrMatrix;
 import org.jblas.DoubleMatrix;
 
 import java.util.LinkedList;
@@ -114,6 +116,146 @@ public class GradientChecker {
         checkGradient(net, loss, X, Y);
     }
 
+    /**
+     * Create a classification test with the fused softmax and cross entropy loss.
+     */
+    public static void test3() {
+        DoubleMatrix X = new DoubleMatrix(
+                new double[][] {
+                        {.1f, .1f, .1f, .6f, .1f},
+                        {.5f, .1f, .2f, .1f, .1f},
+                        {.1f, .2f, .2f, .1f, .4f}});
+        DoubleMatrix Y = new DoubleMatrix(new double[] {2., 0., 1.});
+        Sequential net = new Sequential(new Layer[] {
+                new Linear(5, 10, new Linear.WeightInitUniform(-1, 1)),
+                new Sigmoid(),
+                new Linear(10, 20, new Linear.WeightInitUniform(-1, 1)),
+                new Sigmoid(),
+                new Linear(20, 6, new Linear.WeightInitUniform(-1, 1))});
+        SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
+
+        System.out.println(net);
+        System.out.println(loss);
+        checkGradient(net, loss, X, Y);
+    }
+
+    /**
+     * Create a classification test with inputs in sparse form (see {@link CsrMatrix}).
+     */
+    public static void test4() {
+        DoubleMatrix X = CsrMatrix.fromDense(new DoubleMatrix(
+                new double[][] {
+                        {0., .3, 0., .6, 0.},
+                        {.5, 0., 0., 0., 0.},
+                        {0., 0., 0., 0., 0.}}));
+        DoubleMatrix Y = new DoubleMatrix(new double[] {2., 0., 1.});
+        Sequential net = new Sequential(new Layer[] {
+                new Linear(5, 10, new Linear.WeightInitUniform(-1, 1)),
+                new Sigmoid(),
+                new Linear(10, 6, new Linear.WeightInitUniform(-1, 1))});
+        SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
+
+        System.out.println(net);
+        System.out.println(loss);
+        checkGradient(net, loss, X, Y);
+    }
+
+    /**
+     * Create a classification test on a compiled network (see {@link CompiledSequential}),
+     * whose final Softmax is fused with the cross entropy loss.
+     */
+    public static void test5() {
+        DoubleMatrix X = new DoubleMatrix(
+                new double[][] {
+                        {.1f, .1f, .1f, .6f, .1f},
+                        {.5f, .1f, .2f, .1f, .1f},
+                        {.1f, .2f, .2f, .1f, .4f}});
+        DoubleMatrix Y = new DoubleMatrix(new double[] {2., 0., 1.});
+        Sequential net = new Sequential(new Layer[] {
+                new Linear(5, 10, new Linear.WeightInitUniform(-1, 1)),
+                new TanH(),
+                new Linear(10, 20, new Linear.WeightInitUniform(-1, 1)),
+                new Sigmoid(),
+                new Sigmoid(),
+                new Linear(20, 6, new Linear.WeightInitUniform(-1, 1)),
+                new Softmax()});
+        CompiledSequential compiled = net.compile(X.rows, X.columns, true, new CrossEntropy());
+
+        System.out.println(compiled);
+        System.out.println(compiled.getLoss());
+        checkGradient(compiled, compiled.getLoss(), X, Y);
+        // forward returns the probabilities: the loss given to compile works too
+        for (DoubleMatrix g : compiled.getAllGradients(new LinkedList<DoubleMatrix>())) {
+            g.fill(0);
+        }
+        checkGradient(compiled, new CrossEntropy(), X, Y);
+    }
+
+    /**
+     * Create a classification test on a deeper network with activation checkpointing
+     * (see {@link Sequential#setCheckpointing(int)}), in segments of 3 layers.
+     */
+    public static void test6() {
+        DoubleMatrix X = new DoubleMatrix(
+                new double[][] {
+                        {.1f, .1f, .1f, .6f, .1f},
+                        {.5f, .1f, .2f, .1f, .1f},
+                        {.1f, .2f, .2f, .1f, .4f}});
+        DoubleMatrix Y = new DoubleMatrix(new double[] {2., 0., 1.});
+        Sequential net = new Sequential(new Layer[] {
+                new Linear(5, 10, new Linear.WeightInitUniform(-1, 1)),
+                new TanH(),
+                new Linear(10, 10, new Linear.WeightInitUniform(-1, 1)),
+                new Sigmoid(),
+                new Linear(10, 10, new Linear.WeightInitUniform(-1, 1)),
+                new TanH(),
+                new Linear(10, 6, new Linear.WeightInitUniform(-1, 1)),
+                new Softmax()});
+        net.setCheckpointing(3);
+        CrossEntropy loss = new CrossEntropy();
+
+        System.out.println(net);
+        System.out.println(loss);
+        checkGradient(net, loss, X, Y);
+    }
+
+    /**
+     * Check that the sparse path of {@link Linear} (see {@link CsrMatrix}) computes the same
+     * gradients as the dense one.
+     */
+    public static void test7() {
+        DoubleMatrix X = new DoubleMatrix(
+                new double[][] {
+                        {0., .3, 0., .6, 0.},
+                        {.5, 0., 0., 0., 0.},
+                        {0., 0., 0., 0., 0.}});
+        DoubleMatrix gY = new DoubleMatrix(
+                new double[][] {
+                        {.2, -.1, .4, 0., .3, -.5},
+                        {-.3, .6, .1, .2, 0., .1},
+                        {.1, .1, -.2, .3, .4, 0.}});
+        Linear dense = new Linear(5, 6, new Linear.WeightInitUniform(-1, 1));
+        Linear sparse = (Linear) dense.replicate();  // same weights, gradients of its own
+
+        System.out.println(dense);
+        dense.forward(X);
+        DoubleMatrix dX = dense.backward(gY);
+        sparse.forward(CsrMatrix.fromDense(X));
+        DoubleMatrix sX = sparse.backward(gY);
+
+        List<DoubleMatrix> dGrads = dense.getAllGradients(new LinkedList<DoubleMatrix>());
+        List<DoubleMatrix> sGrads = sparse.getAllGradients(new LinkedList<DoubleMatrix>());
+        boolean pass = dX.distance2(sX) < 1e-12;
+        for (int k = 0; k < dGrads.size(); k++) {
+            pass &= dGrads.get(k).distance2(sGrads.get(k)) < 1e-12;
+        }
+
+        if (pass)
+            System.out.println("same backward for sparse and dense inputs");
+        else
+            System.err.println("different backward for sparse and dense inputs");
+    }
+
     /**
      * Create a regression test.
      */
@@ -145,6 +287,26 @@ public class GradientChecker {
         System.out.println();
         System.out.println("--- Test 2 ---");
         test2();
+
+        System.out.println();
+        System.out.println("--- Test 3 ---");
+        test3();
+
+        System.out.println();
+        System.out.println("--- Test 4 ---");
+        test4();
+
+        System.out.println();
+        System.out.println("--- Test 5 ---");
+        test5();
+
+        System.out.println();
+        System.out.println("--- Test 6 ---");
+        test6();
+
+        System.out.println();
+        System.out.println("--- Test 7 ---");
+        test7();
     }
 
 }
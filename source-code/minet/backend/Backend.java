@@ -0,0 +1,105 @@
+// File: Backend.java
+// Linear algebra backend
+package minet.backend;
+
+import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
+
+/**
+ * The implementation of the matrix products and vector updates used by the layers and
+ * optimizers (matrices stay {@link DoubleMatrix} / {@link FloatMatrix}, which are plain
+ * column-major Java arrays).
+ *
+ * {@link JblasBackend} calls the native BLAS bundled with jblas, {@link JavaBackend} is
+ * pure Java and needs no native library. The backend is chosen with the system property
+ * minet.backend ("jblas", the default, or "java"), or with {@link #set(Backend)}.
+ */
+public abstract class Backend {
+
+    static Backend backend = "java".equals(System.getProperty("minet.backend"))
+            ? new JavaBackend() : new JblasBackend();
+
+    /**
+     * @return the backend used by the layers and optimizers
+     */
+    public static Backend get() {
+        return backend;
+    }
+
+    /**
+     * Set the backend used by the layers and optimizers.
+     */
+    public static void set(Backend backend) {
+        Backend.backend = backend;
+    }
+
+    /**
+     * C = alpha * op(A) * op(B) + beta * C, with column-major [m x k] op(A), [k x n] op(B)
+     * and [m x n] C, where op(X) is X or X^T (as in BLAS dgemm).
+     */
+    public abstract void gemm(boolean transA, boolean transB, int m, int n, int k, double alpha,
+                              double[] a, int lda, double[] b, int ldb, double beta, double[] c, int ldc);
+
+    /**
+     * Single precision version of {@link #gemm(boolean, boolean, int, int, int, double, double[], int, double[], int, double, double[], int)}.
+     */
+    public abstract void gemm(boolean transA, boolean transB, int m, int n, int k, float alpha,
+                              float[] a, int lda, float[] b, int ldb, float beta, float[] c, int ldc);
+
+    /**
+     * y[0:n] += alpha * x[0:n]
+     */
+    public abstract void axpy(int n, double alpha, double[] x, double[] y);
+
+    /**
+     * y[0:n] += alpha * x[0:n]
+     */
+    public abstract void axpy(int n, float alpha, float[] x, float[] y);
+
+    /**
+     * C = op(A) * op(B) + beta * C.
+     * @return C
+     */
+    public DoubleMatrix mmul(DoubleMatrix A, boolean transA, DoubleMatrix B, boolean transB, double beta, DoubleMatrix C) {
+        int m = transA ? A.columns : A.rows;
+        int k = transA ? A.rows : A.columns;
+        int n = transB ? B.rows : B.columns;
+        if ((transB ? B.columns : B.rows) != k || C.rows != m || C.columns != n) {
+            throw new IllegalArgumentException(String.format("cannot multiply %dx%d%s by %dx%d%s into %dx%d",
+                    A.rows, A.columns, transA ? "^T" : "", B.rows, B.columns, transB ? "^T" : "", C.rows, C.columns));
+        }
+        this.gemm(transA, transB, m, n, k, 1, A.data, Math.max(A.rows, 1), B.data, Math.max(B.rows, 1),
+                beta, C.data, Math.max(C.rows, 1));
+        return C;
+    }
+
+    /**
+     * @return a new matrix A * B
+     */
+    public DoubleMatrix mmul(DoubleMatrix A, DoubleMatrix B) {
+        return this.mmul(A, false, B, false, 0, new DoubleMatrix(A.rows, B.columns));
+    }
+
+    /**
+     * Single precision version of {@link #mmul(DoubleMatrix, boolean, DoubleMatrix, boolean, double, DoubleMatrix)}.
+     */
+    public FloatMatrix mmul(FloatMatrix A, boolean transA, FloatMatrix B, boolean transB, float beta, FloatMatrix C) {
+        int m = transA ? A.columns : A.rows;
+        int k = transA ? A.rows : A.columns;
+        int n = transB ? B.rows : B.columns;
+        if ((transB ? B.columns : B.rows) != k || C.rows != m || C.columns != n) {
+            throw new IllegalArgumentException(String.format("cannot multiply %dx%d%s by %dx%d%s into %dx%d",
+                    A.rows, A.columns, transA ? "^T" : "", B.rows, B.columns, transB ? "^T" : "", C.rows, C.columns));
+        }
+        this.gemm(transA, transB, m, n, k, 1f, A.data, Math.max(A.rows, 1), B.data, Math.max(B.rows, 1),
+                beta, C.data, Math.max(C.rows, 1));
+        return C;
+    }
+
+    /**
+     * @return a new matrix A * B
+     */
+    public FloatMatrix mmul(FloatMatrix A, FloatMatrix B) {
+        return this.mmul(A, false, B, false, 0f, new FloatMatrix(A.rows, B.columns));
+    }
+}
@@ -0,0 +1,87 @@
+// File: GemmBenchmark.java
+// Benchmark of the matrix product of the backends
+package minet.backend;
+
+import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
+
+/**
+ * Compare the matrix products of {@link JblasBackend} and {@link JavaBackend} on the shapes
+ * of an MNIST minibatch through a 784-1000-10 network: for each product, the time per call,
+ * the GFLOPS and the largest difference between the two results.
+ *
+ * <pre>
+ * java minet.backend.GemmBenchmark [batchsize] [hidden] [repeats]
+ * </pre>
+ */
+public class GemmBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int h = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int d = 784;
+        Backend[] backends = new Backend[] {new JblasBackend(), new JavaBackend()};
+
+        System.out.printf("%-28s %10s %12s %8s %12s %8s %10s%n",
+                "product", "precision", "jblas ms", "GFLOPS", "java ms", "GFLOPS", "max diff");
+        // forward: X * W, gradient of W: X^T * gY, gradient of X: gY * W^T
+        // as {m, k, n, transA, transB} for an [m x k] op(A) and a [k x n] op(B)
+        int[][] shapes = new int[][] {
+                {n, d, h, 0, 0}, {d, n, h, 1, 0}, {n, h, d, 0, 1},
+                {n, h, 10, 0, 0}, {h, n, 10, 1, 0}, {n, 10, h, 0, 1}};
+        for (int[] s : shapes) {
+            int m = s[0], k = s[1], cols = s[2];
+            boolean transA = s[3] == 1, transB = s[4] == 1;
+            DoubleMatrix A = transA ? DoubleMatrix.rand(k, m) : DoubleMatrix.rand(m, k);
+            DoubleMatrix B = transB ? DoubleMatrix.rand(cols, k) : DoubleMatrix.rand(k, cols);
+            String name = String.format("[%dx%d]%s * [%dx%d]%s", A.rows, A.columns, transA ? "^T" : "",
+                    B.rows, B.columns, transB ? "^T" : "");
+            double flops = 2. * m * cols * k;
+
+            DoubleMatrix[] C = new DoubleMatrix[2];
+            double[] ms = new double[2];
+            for (int b = 0; b < 2; b++) {
+                C[b] = new DoubleMatrix(m, cols);
+                ms[b] = time(repeats, backends[b], A, transA, B, transB, C[b]);
+            }
+            System.out.printf("%-28s %10s %12.2f %8.2f %12.2f %8.2f %10.2e%n", name, "double",
+                    ms[0], flops / ms[0] * 1e-6, ms[1], flops / ms[1] * 1e-6, C[0].sub(C[1]).normmax());
+
+            FloatMatrix Af = A.toFloat(), Bf = B.toFloat();
+            FloatMatrix[] Cf = new FloatMatrix[2];
+            for (int b = 0; b < 2; b++) {
+                Cf[b] = new FloatMatrix(m, cols);
+                ms[b] = time(repeats, backends[b], Af, transA, Bf, transB, Cf[b]);
+            }
+            System.out.printf("%-28s %10s %12.2f %8.2f %12.2f %8.2f %10.2e%n", name, "float",
+                    ms[0], flops / ms[0] * 1e-6, ms[1], flops / ms[1] * 1e-6, Cf[0].sub(Cf[1]).normmax());
+        }
+    }
+
+    /**
+     * @return the mean time of a product in milliseconds, after one warm-up call
+     */
+    static double time(int repeats, Backend backend, DoubleMatrix A, boolean transA,
+                       DoubleMatrix B, boolean transB, DoubleMatrix C) {
+        backend.mmul(A, transA, B, transB, 0, C);
+        long t0 = System.nanoTime();
+        for (int r = 0; r < repeats; r++) {
+            backend.mmul(A, transA, B, transB, 0, C);
+        }
+        return (System.nanoTime() - t0) * 1e-6 / repeats;
+    }
+
+    /**
+     * @return the mean time of a product in milliseconds, after one warm-up call
+     */
+    static double time(int repeats, Backend backend, FloatMatrix A, boolean transA,
+                       FloatMatrix B, boolean transB, FloatMatrix C) {
+        backend.mmul(A, transA, B, transB, 0f, C);
+        long t0 = System.nanoTime();
+        for (int r = 0; r < repeats; r++) {
+            backend.mmul(A, transA, B, transB, 0f, C);
+        }
+        return (System.nanoTime() - t0) * 1e-6 / repeats;
+    }
+}
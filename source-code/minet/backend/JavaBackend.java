@@ -0,0 +1,284 @@
+// File: JavaBackend.java
+// Pure Java backend
+package minet.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A pure Java backend, with no native library.
+ *
+ * The matrix product follows the usual structure of optimised BLAS (Goto and van de Geijn,
+ * 2008, "Anatomy of high-performance matrix multiplication"): C is split into blocks computed
+ * in parallel on a fork-join pool; within a block, [KC x NC] panels of op(B) and [MC x KC]
+ * panels of op(A) are packed into contiguous buffers sized for the caches (which also takes
+ * care of the transposes), and a 4 x 4 register-tiled micro-kernel accumulates each 4 x 4
+ * tile of C in local variables.
+ *
+ * Single precision products are packed into (and accumulated in) doubles.
+ */
+public class JavaBackend extends Backend {
+
+    static final int MR = 4;      // rows of a micro-tile
+    static final int NR = 4;      // columns of a micro-tile
+    static final int MC = 64;     // rows of a packed panel of op(A)
+    static final int KC = 256;    // depth of the packed panels
+    static final int NC = 1024;   // columns of a packed panel of op(B)
+
+    // below this number of multiply-adds, a product runs on the calling thread
+    static final long PARALLEL_FLOPS = 1 << 18;
+
+    ForkJoinPool pool;
+
+    // packing buffers of each thread
+    ThreadLocal<double[][]> buffers = ThreadLocal.withInitial(
+            () -> new double[][] {new double[MC * KC], new double[KC * NC], new double[MR * NR]});
+
+    /**
+     * A backend using the common fork-join pool.
+     */
+    public JavaBackend() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool running the blocks of the matrix products
+     */
+    public JavaBackend(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void gemm(boolean transA, boolean transB, int m, int n, int k, double alpha,
+                     double[] a, int lda, double[] b, int ldb, double beta, double[] c, int ldc) {
+        Product p = new Product(transA, transB, m, n, k, alpha, beta, ldc);
+        p.ad = a;
+        p.lda = lda;
+        p.bd = b;
+        p.ldb = ldb;
+        p.cd = c;
+        this.run(p);
+    }
+
+    @Override
+    public void gemm(boolean transA, boolean transB, int m, int n, int k, float alpha,
+                     float[] a, int lda, float[] b, int ldb, float beta, float[] c, int ldc) {
+        Product p = new Product(transA, transB, m, n, k, alpha, beta, ldc);
+        p.af = a;
+        p.lda = lda;
+        p.bf = b;
+        p.ldb = ldb;
+        p.cf = c;
+        this.run(p);
+    }
+
+    @Override
+    public void axpy(int n, double alpha, double[] x, double[] y) {
+        for (int i = 0; i < n; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    @Override
+    public void axpy(int n, float alpha, float[] x, float[] y) {
+        for (int i = 0; i < n; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    void run(Product p) {
+        if (p.m == 0 || p.n == 0) {
+            return;
+        }
+        int nTasks = (long) p.m * p.n * p.k < PARALLEL_FLOPS ? 1 : this.pool.getParallelism();
+        if (nTasks <= 1) {
+            p.block(0, p.m, 0, p.n);
+            return;
+        }
+
+        // split the larger dimension of C into blocks of whole micro-tiles
+        List<RecursiveAction> blocks = new ArrayList<RecursiveAction>();
+        boolean byColumns = p.n >= p.m;
+        int len = byColumns ? p.n : p.m;
+        int tile = byColumns ? NR : MR;
+        int step = Math.max(tile, (len / nTasks + tile - 1) / tile * tile);
+        for (int s = 0; s < len; s += step) {
+            final int from = s;
+            final int to = Math.min(s + step, len);
+            blocks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    if (byColumns) {
+                        p.block(0, p.m, from, to);
+                    } else {
+                        p.block(from, to, 0, p.n);
+                    }
+                }
+            });
+        }
+        if (RecursiveAction.getPool() == this.pool) {
+            RecursiveAction.invokeAll(blocks);
+        } else {
+            this.pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(blocks);
+                }
+            });
+        }
+    }
+
+    /**
+     * One matrix product, in double or in single precision (the arrays of the other
+     * precision are null).
+     */
+    class Product {
+        boolean transA, transB;
+        int m, n, k;
+        double alpha, beta;
+        double[] ad, bd, cd;
+        float[] af, bf, cf;
+        int lda, ldb, ldc;
+
+        Product(boolean transA, boolean transB, int m, int n, int k, double alpha, double beta, int ldc) {
+            this.transA = transA;
+            this.transB = transB;
+            this.m = m;
+            this.n = n;
+            this.k = k;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.ldc = ldc;
+        }
+
+        /**
+         * Compute rows [i0, i1) and columns [j0, j1) of C.
+         */
+        void block(int i0, int i1, int j0, int j1) {
+            this.scale(i0, i1, j0, j1);
+            double[][] buf = buffers.get();
+            double[] ap = buf[0];
+            double[] bp = buf[1];
+            double[] tile = buf[2];
+            for (int jj = j0; jj < j1; jj += NC) {
+                int nc = Math.min(NC, j1 - jj);
+                for (int pp = 0; pp < this.k; pp += KC) {
+                    int kc = Math.min(KC, this.k - pp);
+                    this.packB(bp, pp, kc, jj, nc);
+                    for (int ii = i0; ii < i1; ii += MC) {
+                        int mc = Math.min(MC, i1 - ii);
+                        this.packA(ap, ii, mc, pp, kc);
+                        for (int jr = 0; jr < nc; jr += NR) {
+                            for (int ir = 0; ir < mc; ir += MR) {
+                                kernel(kc, ap, ir * kc, bp, jr * kc, tile);
+                                this.store(tile, ii + ir, Math.min(MR, mc - ir), jj + jr, Math.min(NR, nc - jr));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * C = beta * C on the block (with C = 0 if beta is 0, whatever C holds).
+         */
+        void scale(int i0, int i1, int j0, int j1) {
+            if (this.beta == 1) {
+                return;
+            }
+            for (int j = j0; j < j1; j++) {
+                for (int i = i0 + j * this.ldc; i < i1 + j * this.ldc; i++) {
+                    if (this.cd != null) {
+                        this.cd[i] = this.beta == 0 ? 0 : this.beta * this.cd[i];
+                    } else {
+                        this.cf[i] = this.beta == 0 ? 0 : (float) (this.beta * this.cf[i]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Pack rows [i0, i0 + mc) and columns [p0, p0 + kc) of op(A) into MR-row panels,
+         * each stored column by column; rows past the end are zero.
+         */
+        void packA(double[] ap, int i0, int mc, int p0, int kc) {
+            for (int ir = 0; ir < mc; ir += MR) {
+                int base = ir * kc;
+                for (int p = 0; p < kc; p++) {
+                    for (int r = 0; r < MR; r++) {
+                        int i = i0 + ir + r;
+                        double v = 0;
+                        if (ir + r < mc) {
+                            int idx = this.transA ? (p0 + p) + i * this.lda : i + (p0 + p) * this.lda;
+                            v = this.ad != null ? this.ad[idx] : this.af[idx];
+                        }
+                        ap[base + p * MR + r] = v;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Pack rows [p0, p0 + kc) and columns [j0, j0 + nc) of op(B) into NR-column panels,
+         * each stored row by row; columns past the end are zero.
+         */
+        void packB(double[] bp, int p0, int kc, int j0, int nc) {
+            for (int jr = 0; jr < nc; jr += NR) {
+                int base = jr * kc;
+                for (int c = 0; c < NR; c++) {
+                    int j = j0 + jr + c;
+                    boolean valid = jr + c < nc;
+                    for (int p = 0; p < kc; p++) {
+                        double v = 0;
+                        if (valid) {
+                            int idx = this.transB ? j + (p0 + p) * this.ldb : (p0 + p) + j * this.ldb;
+                            v = this.bd != null ? this.bd[idx] : this.bf[idx];
+                        }
+                        bp[base + p * NR + c] = v;
+                    }
+                }
+            }
+        }
+
+        /**
+         * C[i0:i0+mr, j0:j0+nr] += alpha * tile
+         */
+        void store(double[] tile, int i0, int mr, int j0, int nr) {
+            for (int c = 0; c < nr; c++) {
+                int col = (j0 + c) * this.ldc + i0;
+                for (int r = 0; r < mr; r++) {
+                    if (this.cd != null) {
+                        this.cd[col + r] += this.alpha * tile[c * MR + r];
+                    } else {
+                        this.cf[col + r] += (float) (this.alpha * tile[c * MR + r]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * tile = A_panel * B_panel for an [MR x kc] packed panel of A and a [kc x NR] packed
+     * panel of B, with the 16 entries of the tile held in registers.
+     */
+    static void kernel(int kc, double[] ap, int a, double[] bp, int b, double[] tile) {
+        double c00 = 0, c10 = 0, c20 = 0, c30 = 0;
+        double c01 = 0, c11 = 0, c21 = 0, c31 = 0;
+        double c02 = 0, c12 = 0, c22 = 0, c32 = 0;
+        double c03 = 0, c13 = 0, c23 = 0, c33 = 0;
+        for (int p = 0; p < kc; p++, a += MR, b += NR) {
+            double a0 = ap[a], a1 = ap[a + 1], a2 = ap[a + 2], a3 = ap[a + 3];
+            double b0 = bp[b], b1 = bp[b + 1], b2 = bp[b + 2], b3 = bp[b + 3];
+            c00 += a0 * b0; c10 += a1 * b0; c20 += a2 * b0; c30 += a3 * b0;
+            c01 += a0 * b1; c11 += a1 * b1; c21 += a2 * b1; c31 += a3 * b1;
+            c02 += a0 * b2; c12 += a1 * b2; c22 += a2 * b2; c32 += a3 * b2;
+            c03 += a0 * b3; c13 += a1 * b3; c23 += a2 * b3; c33 += a3 * b3;
+        }
+        tile[0] = c00; tile[1] = c10; tile[2] = c20; tile[3] = c30;
+        tile[4] = c01; tile[5] = c11; tile[6] = c21; tile[7] = c31;
+        tile[8] = c02; tile[9] = c12; tile[10] = c22; tile[11] = c32;
+        tile[12] = c03; tile[13] = c13; tile[14] = c23; tile[15] = c33;
+    }
+}
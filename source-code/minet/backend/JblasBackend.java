@@ -0,0 +1,41 @@
+// File: JblasBackend.java
+// Native BLAS backend
+package minet.backend;
+
+import org.jblas.NativeBlas;
+
+/**
+ * The native BLAS library bundled with jblas.
+ */
+public class JblasBackend extends Backend {
+
+    public JblasBackend() { }
+
+    @Override
+    public void gemm(boolean transA, boolean transB, int m, int n, int k, double alpha,
+                     double[] a, int lda, double[] b, int ldb, double beta, double[] c, int ldc) {
+        if (m == 0 || n == 0) {
+            return;
+        }
+        NativeBlas.dgemm(transA ? 'T' : 'N', transB ? 'T' : 'N', m, n, k, alpha, a, 0, lda, b, 0, ldb, beta, c, 0, ldc);
+    }
+
+    @Override
+    public void gemm(boolean transA, boolean transB, int m, int n, int k, float alpha,
+                     float[] a, int lda, float[] b, int ldb, float beta, float[] c, int ldc) {
+        if (m == 0 || n == 0) {
+            return;
+        }
+        NativeBlas.sgemm(transA ? 'T' : 'N', transB ? 'T' : 'N', m, n, k, alpha, a, 0, lda, b, 0, ldb, beta, c, 0, ldc);
+    }
+
+    @Override
+    public void axpy(int n, double alpha, double[] x, double[] y) {
+        NativeBlas.daxpy(n, alpha, x, 0, 1, y, 0, 1);
+    }
+
+    @Override
+    public void axpy(int n, float alpha, float[] x, float[] y) {
+        NativeBlas.saxpy(n, alpha, x, 0, 1, y, 0, 1);
+    }
+}
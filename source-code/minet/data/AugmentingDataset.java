@@ -0,0 +1,324 @@
+// File: AugmentingDataset.java
+// Dataset wrapper which distorts the input images
+package minet.data;
+
+import minet.Dataset;
+import org.jblas.DoubleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A dataset which randomly distorts the (square, grey-level) input images of another
+ * dataset each time they are put in a minibatch: a random shift, a small rotation and
+ * an elastic distortion (see Simard et al., 2003, "Best practices for convolutional neural
+ * networks applied to visual document analysis"). The y of each instance is unchanged.
+ *
+ * The images of a minibatch are distorted by a pool of worker threads. The random numbers
+ * of each image are drawn from a generator seeded from the run seed, the epoch (counted by
+ * {@link #reset()} and {@link #shuffle(Random)}) and the position of the image in the epoch,
+ * so the distortions do not depend on the number of threads or on their scheduling, nor on
+ * whether an image is read in a minibatch or alone (see {@link #getInputRow(int, double[])}).
+ * Wrapping this dataset in a {@link PrefetchingDataset} moves the whole stage off the
+ * training thread.
+ */
+public class AugmentingDataset extends Dataset {
+
+    Dataset source;
+    int side;                 // images are side x side, pixel (x, y) at entry y * side + x
+    ExecutorService pool;
+    int nThreads;
+
+    double maxShift = 2;      // in pixels
+    double maxRotation = 10;  // in degrees
+    double alpha = 34;        // scale of the elastic displacement field, 0 for none
+    double sigma = 4;         // std of the gaussian smoothing the displacement field
+
+    long seed;
+    int epoch;
+    ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    // throughput
+    AtomicLong nImages = new AtomicLong();
+    AtomicLong busyNanos = new AtomicLong();   // summed over the threads calling fillMiniBatch
+    AtomicLong workerNanos = new AtomicLong(); // summed over the worker threads
+
+    /**
+     * @param source the dataset to read from; its inputs must be square images
+     * @param seed the run seed
+     * @param nThreads the number of worker threads
+     */
+    public AugmentingDataset(Dataset source, long seed, int nThreads) {
+        super(0, source.getInputDims(), source.getOutDims());
+        this.side = (int) Math.round(Math.sqrt(source.getInputDims()));
+        if (this.side * this.side != source.getInputDims()) {
+            throw new IllegalArgumentException("inputs are not square images: " + source.getInputDims() + " dims");
+        }
+        this.source = source;
+        this.size = source.getSize();
+        this.seed = seed;
+        this.nThreads = nThreads;
+        this.pool = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, "minet-augment");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Set the largest shift, in pixels, along each axis (0 for none).
+     */
+    public void setShift(double maxShift) {
+        this.maxShift = maxShift;
+    }
+
+    /**
+     * Set the largest rotation angle, in degrees (0 for none).
+     */
+    public void setRotation(double maxRotation) {
+        this.maxRotation = maxRotation;
+    }
+
+    /**
+     * Set the elastic distortion: the displacement field is drawn from U(-1, 1), smoothed by
+     * a gaussian of std sigma, and scaled by alpha (0 for none).
+     */
+    public void setElastic(double alpha, double sigma) {
+        if (sigma <= 0) {
+            throw new IllegalArgumentException("sigma must be positive: " + sigma);
+        }
+        this.alpha = alpha;
+        this.sigma = sigma;
+    }
+
+    @Override
+    public void reset() {
+        this.source.reset();
+        this.currIndex = 0;
+        this.epoch++;
+    }
+
+    @Override
+    public void shuffle(Random rnd) {
+        this.source.shuffle(rnd);
+        this.currIndex = 0;
+        this.epoch++;
+    }
+
+    /**
+     * The distorted x of the i-th instance, the same as in a minibatch of the current epoch
+     * (so that e.g. a {@link PartitionDataset} reading rows is augmented too), distorted on
+     * the calling thread.
+     */
+    @Override
+    public void getInputRow(int i, double[] row) {
+        this.source.getInputRow(i, row);
+        Worker w = this.workers.get();
+        w.rng = new SplittableRandom(this.rowSeed(this.epoch, i));
+        w.distort(row, 1, 0);
+    }
+
+    @Override
+    public void getOutputRow(int i, double[] row) {
+        this.source.getOutputRow(i, row);
+    }
+
+    @Override
+    public void fillMiniBatch(int start, int end, DoubleMatrix bX, DoubleMatrix bY, int offset) {
+        long t0 = System.nanoTime();
+        this.source.fillMiniBatch(start, end, bX, bY, offset);
+
+        // split the rows among the workers
+        int n = end - start;
+        int chunk = (n + this.nThreads - 1) / this.nThreads;
+        int epoch = this.epoch;
+        List<Future<?>> done = new ArrayList<Future<?>>();
+        for (int r0 = 0; r0 < n; r0 += chunk) {
+            final int from = r0;
+            final int to = Math.min(r0 + chunk, n);
+            done.add(this.pool.submit(() -> {
+                long t = System.nanoTime();
+                Worker w = this.workers.get();
+                for (int r = from; r < to; r++) {
+                    w.rng = new SplittableRandom(this.rowSeed(epoch, start + r));
+                    w.distort(bX.data, bX.rows, offset + r);
+                }
+                this.workerNanos.addAndGet(System.nanoTime() - t);
+            }));
+        }
+        for (Future<?> f : done) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        this.nImages.addAndGet(n);
+        this.busyNanos.addAndGet(System.nanoTime() - t0);
+    }
+
+    /**
+     * @return the seed of the random numbers of the image at a position of an epoch
+     */
+    long rowSeed(int epoch, int position) {
+        // SplittableRandom mixes its seed, so consecutive seeds give unrelated sequences
+        return (this.seed * 0x9E3779B97F4A7C15L + epoch) * 0x9E3779B97F4A7C15L + position;
+    }
+
+    /**
+     * @return the number of images distorted per second spent filling minibatches
+     */
+    public double getThroughput() {
+        return this.nImages.get() / Math.max(this.busyNanos.get() * 1e-9, 1e-9);
+    }
+
+    /**
+     * @return a summary of the throughput of the stage, to size the pool of workers
+     */
+    public String report() {
+        double perWorker = this.nImages.get() / Math.max(this.workerNanos.get() * 1e-9, 1e-9);
+        return String.format("augmentation: %d images, %.0f images/s with %d threads (%.0f images/s per thread)",
+                this.nImages.get(), this.getThroughput(), this.nThreads, perWorker);
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void close() {
+        this.pool.shutdown();
+    }
+
+    /**
+     * The scratch buffers of a worker thread, and the random number generator of the image
+     * being distorted.
+     */
+    class Worker {
+        SplittableRandom rng;
+        double[] src = new double[side * side];
+        double[] dst = new double[side * side];
+        double[] ux = new double[side * side];   // displacement field
+        double[] uy = new double[side * side];
+        double[] tmp = new double[side * side];
+        double[] kernel;
+        double kernelSigma;
+
+        void makeKernel() {
+            this.kernelSigma = sigma;
+            int radius = (int) Math.ceil(3 * sigma);
+            this.kernel = new double[2 * radius + 1];
+            double sum = 0;
+            for (int i = -radius; i <= radius; i++) {
+                this.kernel[i + radius] = Math.exp(-i * i / (2 * sigma * sigma));
+                sum += this.kernel[i + radius];
+            }
+            for (int i = 0; i < this.kernel.length; i++) {
+                this.kernel[i] /= sum;
+            }
+        }
+
+        /**
+         * Distort row r of a column-major matrix with the given number of rows.
+         */
+        void distort(double[] data, int rows, int r) {
+            int n = side * side;
+            for (int j = 0; j < n; j++) {
+                this.src[j] = data[r + j * rows];
+            }
+
+            double angle = Math.toRadians(maxRotation) * (2 * this.rng.nextDouble() - 1);
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            double dx = maxShift * (2 * this.rng.nextDouble() - 1);
+            double dy = maxShift * (2 * this.rng.nextDouble() - 1);
+            boolean elastic = alpha > 0;
+            if (elastic) {
+                this.field(this.ux);
+                this.field(this.uy);
+            }
+
+            // each output pixel samples the source image at the inverse transform of its position
+            double c = (side - 1) / 2.;
+            for (int y = 0, j = 0; y < side; y++) {
+                for (int x = 0; x < side; x++, j++) {
+                    double px = x - c - dx;
+                    double py = y - c - dy;
+                    double sx = cos * px + sin * py + c;
+                    double sy = -sin * px + cos * py + c;
+                    if (elastic) {
+                        sx += this.ux[j];
+                        sy += this.uy[j];
+                    }
+                    this.dst[j] = this.sample(sx, sy);
+                }
+            }
+
+            for (int j = 0; j < n; j++) {
+                data[r + j * rows] = this.dst[j];
+            }
+        }
+
+        /**
+         * Bilinear interpolation of the source image, 0 outside.
+         */
+        double sample(double sx, double sy) {
+            int x0 = (int) Math.floor(sx);
+            int y0 = (int) Math.floor(sy);
+            double fx = sx - x0;
+            double fy = sy - y0;
+            return (1 - fy) * ((1 - fx) * this.pixel(x0, y0) + fx * this.pixel(x0 + 1, y0))
+                    + fy * ((1 - fx) * this.pixel(x0, y0 + 1) + fx * this.pixel(x0 + 1, y0 + 1));
+        }
+
+        double pixel(int x, int y) {
+            return x < 0 || y < 0 || x >= side || y >= side ? 0 : this.src[y * side + x];
+        }
+
+        /**
+         * Draw a smoothed random displacement field (separable gaussian filter).
+         */
+        void field(double[] u) {
+            if (this.kernel == null || this.kernelSigma != sigma) {
+                this.makeKernel();
+            }
+            int radius = this.kernel.length / 2;
+            for (int j = 0; j < u.length; j++) {
+                u[j] = 2 * this.rng.nextDouble() - 1;
+            }
+            for (int y = 0; y < side; y++) {
+                for (int x = 0; x < side; x++) {
+                    double s = 0;
+                    for (int k = -radius; k <= radius; k++) {
+                        int xx = x + k;
+                        if (xx >= 0 && xx < side) {
+                            s += this.kernel[k + radius] * u[y * side + xx];
+                        }
+                    }
+                    this.tmp[y * side + x] = s;
+                }
+            }
+            for (int y = 0; y < side; y++) {
+                for (int x = 0; x < side; x++) {
+                    double s = 0;
+                    for (int k = -radius; k <= radius; k++) {
+                        int yy = y + k;
+                        if (yy >= 0 && yy < side) {
+                            s += this.kernel[k + radius] * this.tmp[yy * side + x];
+                        }
+                    }
+                    u[y * side + x] = alpha * s;
+                }
+            }
+        }
+    }
+}
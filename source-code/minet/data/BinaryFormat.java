@@ -0,0 +1,211 @@
+// File: BinaryFormat.java
+// Binary dataset format
+package minet.data;
+
+import minet.Dataset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A headered raw little-endian format for storing a {@link Dataset} on disk.
+ *
+ * <pre>
+ * Header (32 bytes, little-endian ints):
+ *     magic ("MNET"), version, number_of_instances, x_dims, y_dims, x_type, y_type, reserved
+ * Body:
+ *     number_of_instances x x_dims doubles (X, row by row), followed by
+ *     number_of_instances x y_dims doubles (Y, row by row)
+ * </pre>
+ *
+ * Since every row has a fixed size, a file in this format can be mapped into
+ * memory (see {@link Dataset#mmap(String)}) and rows read without parsing.
+ */
+public class BinaryFormat {
+
+    public static final int MAGIC = 0x54454E4D;  // "MNET" in little-endian
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 32;
+    public static final int TYPE_FLOAT64 = 1;
+
+    /**
+     * The header of a binary dataset file.
+     */
+    public static class Header {
+        public long base;    // byte offset of the header in the file
+        public int size;
+        public int xDims;
+        public int yDims;
+        public int xType;
+        public int yType;
+
+        public Header(int size, int xDims, int yDims) {
+            this(size, xDims, yDims, TYPE_FLOAT64, TYPE_FLOAT64);
+        }
+
+        public Header(int size, int xDims, int yDims, int xType, int yType) {
+            this.size = size;
+            this.xDims = xDims;
+            this.yDims = yDims;
+            this.xType = xType;
+            this.yType = yType;
+        }
+
+        /**
+         * @return the byte offset of the first row of X
+         */
+        public long xOffset() {
+            return base + HEADER_BYTES;
+        }
+
+        /**
+         * @return the byte offset of the first row of Y
+         */
+        public long yOffset() {
+            return xOffset() + (long) size * xDims * Double.BYTES;
+        }
+
+        /**
+         * @return the total number of bytes of a file with this header
+         */
+        public long fileBytes() {
+            return yOffset() + (long) size * yDims * Double.BYTES;
+        }
+    }
+
+    /**
+     * Read and validate the header of a binary dataset file.
+     */
+    public static Header readHeader(FileChannel ch, String path) throws IOException {
+        return readHeader(ch, path, 0);
+    }
+
+    /**
+     * Read and validate the header of a binary dataset stored from byte base of a file.
+     */
+    public static Header readHeader(FileChannel ch, String path, long base) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, base + buf.position()) < 0) {
+                throw new IOException(path + ": truncated header");
+            }
+        }
+        buf.flip();
+        if (buf.getInt() != MAGIC) {
+            throw new IOException(path + ": not a binary dataset file");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException(path + ": unsupported version " + version);
+        }
+        Header h = new Header(buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt());
+        h.base = base;
+        if (h.xType != TYPE_FLOAT64 || h.yType != TYPE_FLOAT64) {
+            throw new IOException(path + ": unsupported element type");
+        }
+        if (ch.size() < h.fileBytes()) {
+            throw new IOException(path + ": truncated body");
+        }
+        return h;
+    }
+
+    /**
+     * Read a binary dataset stored from byte base of a file onto the heap.
+     */
+    public static Dataset read(FileChannel ch, String path, long base) throws IOException {
+        Header h = readHeader(ch, path, base);
+        double[] X = new double[h.size * h.xDims];
+        double[] Y = new double[h.size * h.yDims];
+        map(ch, h.xOffset(), (long) h.size * h.xDims, path).get(X);
+        map(ch, h.yOffset(), (long) h.size * h.yDims, path).get(Y);
+        return new Dataset(h.size, h.xDims, h.yDims, X, Y);
+    }
+
+    /**
+     * Write a dataset to a binary file.
+     * @param data a dataset
+     * @param path the path of the binary file (overwritten if it exists)
+     */
+    public static void write(Dataset data, String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(data, ch);
+        }
+    }
+
+    /**
+     * Write a dataset in the binary format at the current position of a channel.
+     */
+    public static void write(Dataset data, FileChannel ch) throws IOException {
+        Header h = new Header(data.getSize(), data.getInputDims(), data.getOutDims());
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(h.size).putInt(h.xDims).putInt(h.yDims)
+                .putInt(h.xType).putInt(h.yType).putInt(0);
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+
+        // write rows through a fixed size buffer
+        buf = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        double[] row = new double[Math.max(h.xDims, h.yDims)];
+        for (int pass = 0; pass < 2; pass++) {
+            int dims = pass == 0 ? h.xDims : h.yDims;
+            for (int i = 0; i < h.size; i++) {
+                if (pass == 0) {
+                    data.getInputRow(i, row);
+                } else {
+                    data.getOutputRow(i, row);
+                }
+                for (int j = 0; j < dims; j++) {
+                    if (!buf.hasRemaining()) {
+                        flush(ch, buf);
+                    }
+                    buf.putDouble(row[j]);
+                }
+            }
+        }
+        flush(ch, buf);
+    }
+
+    private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Map a region of a binary dataset file as a read-only little-endian DoubleBuffer.
+     */
+    static DoubleBuffer map(FileChannel ch, long offset, long count, String path) throws IOException {
+        long bytes = count * Double.BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException(path + ": region too large to be mapped (" + bytes + " bytes)");
+        }
+        MappedByteBuffer mbuf = ch.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+        return mbuf.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    /**
+     * Convert a txt dataset (see {@link Dataset#loadTxt(String)}) into the binary format.
+     * Usage: BinaryFormat [input.txt] [output.bin]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: BinaryFormat [input.txt] [output.bin]");
+            return;
+        }
+        Dataset data = Dataset.loadTxt(args[0]);
+        write(data, args[1]);
+        System.out.printf("%s: %d instances (%d x dims, %d y dims) written to %s\n",
+                args[0], data.getSize(), data.getInputDims(), data.getOutDims(), args[1]);
+    }
+}
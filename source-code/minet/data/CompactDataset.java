@@ -0,0 +1,155 @@
+// File: CompactDataset.java
+// Dataset with 8-bit inputs
+package minet.data;
+
+import minet.Dataset;
+import org.jblas.DoubleMatrix;
+
+/**
+ * A dataset storing each input entry as one byte (e.g. an MNIST pixel), and class
+ * labels as short integers, instead of doubles. This takes about 8 times less memory.
+ * Entries are converted back to doubles only while a minibatch is filled.
+ *
+ * An input entry x is stored as the byte k (0 to 255) such that x = levels[k],
+ * where levels[k] = k / 255 by default.
+ */
+public class CompactDataset extends Dataset {
+
+    // the largest difference allowed between an entry and its 8-bit level
+    static final double TOLERANCE = 1e-6;
+
+    byte[] bX;        // [size x xDims], row by row
+    double[] levels;  // levels[k] is the value of the byte k
+    short[] labels;   // class labels if yDims is 1 and Y holds small integers, null otherwise
+    double[] dY;      // [size x yDims], row by row, if labels is null
+
+    /**
+     * Convert a dataset whose input entries are of the form k / 255 (or k) with k an
+     * integer between 0 and 255.
+     * @throws IllegalArgumentException if some entries are not of that form
+     */
+    public CompactDataset(Dataset data) {
+        this(data, detectScale(data));
+    }
+
+    /**
+     * Convert a dataset whose input entries are of the form k * scale with k an integer
+     * between 0 and 255.
+     * @throws IllegalArgumentException if some entries are not of that form
+     */
+    public CompactDataset(Dataset data, double scale) {
+        super(data.getSize(), data.getInputDims(), data.getOutDims());
+        this.levels = levels(scale);
+        this.quantize(data);
+    }
+
+    static double[] levels(double scale) {
+        double[] levels = new double[256];
+        for (int k = 0; k < 256; k++) {
+            // k / 255 is computed with a division, which is how such data is usually produced
+            levels[k] = scale == 1. / 255 ? k / 255. : k * scale;
+        }
+        return levels;
+    }
+
+    static double detectScale(Dataset data) {
+        double[] row = new double[data.getInputDims()];
+        double max = 0;
+        for (int i = 0; i < data.getSize(); i++) {
+            data.getInputRow(i, row);
+            for (double v : row) {
+                max = Math.max(max, v);
+            }
+        }
+        return max <= 1 ? 1. / 255 : 1;
+    }
+
+    void quantize(Dataset data) {
+        this.bX = new byte[this.size * this.xDims];
+        double scale = this.levels[1];
+        double[] row = new double[this.xDims];
+        for (int i = 0; i < this.size; i++) {
+            data.getInputRow(i, row);
+            for (int j = 0; j < this.xDims; j++) {
+                long k = Math.round(row[j] / scale);
+                if (!Double.isFinite(row[j]) || k < 0 || k > 255
+                        || Math.abs(this.levels[(int) k] - row[j]) > TOLERANCE) {
+                    throw new IllegalArgumentException(String.format(
+                            "instance %d: input entry %g is not an 8-bit value (scale %g)", i, row[j], scale));
+                }
+                this.bX[i * this.xDims + j] = (byte) k;
+            }
+        }
+
+        double[] y = new double[this.yDims];
+        boolean small = this.yDims == 1;
+        for (int i = 0; i < this.size && small; i++) {
+            data.getOutputRow(i, y);
+            small = y[0] == (short) y[0];
+        }
+        if (small) {
+            this.labels = new short[this.size];
+            for (int i = 0; i < this.size; i++) {
+                data.getOutputRow(i, y);
+                this.labels[i] = (short) y[0];
+            }
+        } else {
+            this.dY = new double[this.size * this.yDims];
+            for (int i = 0; i < this.size; i++) {
+                data.getOutputRow(i, y);
+                System.arraycopy(y, 0, this.dY, i * this.yDims, this.yDims);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes used to store the instances
+     */
+    public long getStorageBytes() {
+        return this.bX.length + (this.labels != null ? 2L * this.labels.length : 8L * this.dY.length);
+    }
+
+    @Override
+    public void getInputRow(int i, double[] row) {
+        int offset = this.order[i] * this.xDims;
+        for (int j = 0; j < this.xDims; j++) {
+            row[j] = this.levels[this.bX[offset + j] & 0xFF];
+        }
+    }
+
+    @Override
+    public void getOutputRow(int i, double[] row) {
+        if (this.labels != null) {
+            row[0] = this.labels[this.order[i]];
+        } else {
+            System.arraycopy(this.dY, this.order[i] * this.yDims, row, 0, this.yDims);
+        }
+    }
+
+    @Override
+    public void fillMiniBatch(int start, int end, DoubleMatrix bX, DoubleMatrix bY, int offset) {
+        int n = end - start;
+        double[] dst = bX.data;
+        for (int r0 = 0; r0 < n; r0 += GATHER_BLOCK) {
+            int r1 = Math.min(r0 + GATHER_BLOCK, n);
+            for (int j = 0, k = offset; j < this.xDims; j++, k += bX.rows) {
+                for (int r = r0; r < r1; r++) {
+                    dst[k + r] = this.levels[this.bX[this.order[start + r] * this.xDims + j] & 0xFF];
+                }
+            }
+        }
+
+        if (this.labels != null) {
+            for (int r = 0; r < n; r++) {
+                bY.data[offset + r] = this.labels[this.order[start + r]];
+            }
+        } else {
+            for (int r = 0; r < n; r++) {
+                int row = this.order[start + r] * this.yDims;
+                for (int j = 0, k = offset + r; j < this.yDims; j++, k += bY.rows) {
+                    bY.data[k] = this.dY[row + j];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+// File: DatasetCache.java
+// On-disk cache of parsed txt datasets
+package minet.data;
+
+import minet.Dataset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A cache of parsed txt datasets, used by {@link Dataset#loadTxt(String)}.
+ *
+ * The first time a txt file is loaded, a binary snapshot (see {@link BinaryFormat}) is
+ * written next to it (as [path].cache), or in the directory given by the system property
+ * minet.cache.dir. Later loads read the snapshot instead of parsing the txt file, as long
+ * as the size, modification time and content hash (CRC32C) of the txt file are unchanged.
+ * The cache can be turned off with -Dminet.cache=false.
+ *
+ * <pre>
+ * Snapshot: [magic "MNCC", version, source size (long), source mtime (long), source hash (long),
+ *            reserved up to 64 bytes] followed by the dataset in the binary format.
+ * </pre>
+ */
+public class DatasetCache {
+
+    public static final int MAGIC = 0x43434E4D;  // "MNCC" in little-endian
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 64;
+    public static final String SUFFIX = ".cache";
+
+    static boolean enabled = !"false".equals(System.getProperty("minet.cache"));
+    static String directory = System.getProperty("minet.cache.dir");
+
+    /**
+     * Turn the cache on or off.
+     */
+    public static void setEnabled(boolean enabled) {
+        DatasetCache.enabled = enabled;
+    }
+
+    /**
+     * Set the directory of the snapshots, or null to write them next to the txt files.
+     */
+    public static void setDirectory(String directory) {
+        DatasetCache.directory = directory;
+    }
+
+    /**
+     * Load a txt dataset, from its snapshot if there is a valid one.
+     * @param path a string, the path of the txt file.
+     * @param nThreads the number of threads used if the txt file has to be parsed
+     * @return a Dataset
+     */
+    public static Dataset loadTxt(String path, int nThreads) throws IOException {
+        if (!enabled) {
+            return TxtParser.parse(path, nThreads);
+        }
+
+        Path src = Paths.get(path);
+        long size = Files.size(src);
+        long mtime = Files.getLastModifiedTime(src).toMillis();
+        Path snapshot = snapshotPath(src);
+
+        Long hash = null;
+        if (Files.isRegularFile(snapshot)) {
+            try (FileChannel ch = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                ByteBuffer buf = readHeader(ch);
+                if (buf != null && buf.getLong() == size && buf.getLong() == mtime) {
+                    long cached = buf.getLong();
+                    hash = hash(src);
+                    if (cached == hash) {
+                        return BinaryFormat.read(ch, snapshot.toString(), HEADER_BYTES);
+                    }
+                }
+            } catch (IOException e) {
+                // an unreadable snapshot is rebuilt below
+            }
+        }
+
+        Dataset data = TxtParser.parse(path, nThreads);
+        try {
+            write(snapshot, data, size, mtime, hash != null ? hash : hash(src));
+        } catch (IOException e) {
+            // e.g. a read-only directory: the dataset is still usable without a snapshot
+            System.err.println("minet: cannot write dataset cache " + snapshot + ": " + e.getMessage());
+        }
+        return data;
+    }
+
+    static Path snapshotPath(Path src) {
+        if (directory == null) {
+            return Paths.get(src.toString() + SUFFIX);
+        }
+        // snapshots of files with the same name in different directories must not collide
+        String abs = src.toAbsolutePath().normalize().toString();
+        return Paths.get(directory, String.format("%s-%08x%s", src.getFileName(), abs.hashCode(), SUFFIX));
+    }
+
+    /**
+     * @return the header positioned after the version, or null if it is not a snapshot header
+     */
+    static ByteBuffer readHeader(FileChannel ch) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, buf.position()) < 0) {
+                return null;
+            }
+        }
+        buf.flip();
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            return null;
+        }
+        return buf;
+    }
+
+    /**
+     * Write a snapshot to a temporary file, then move it into place, so that concurrent
+     * runs never read a partially written snapshot.
+     */
+    static void write(Path snapshot, Dataset data, long size, long mtime, long hash) throws IOException {
+        Path dir = snapshot.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, snapshot.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                buf.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(mtime).putLong(hash);
+                buf.position(HEADER_BYTES);
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+                BinaryFormat.write(data, ch);
+            }
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return the CRC32C of the content of a file
+     */
+    static long hash(Path path) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += Integer.MAX_VALUE) {
+                crc.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Integer.MAX_VALUE, size - pos)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Remove the snapshot of a txt file, if any.
+     */
+    public static void invalidate(String path) throws IOException {
+        Files.deleteIfExists(snapshotPath(Paths.get(path)));
+    }
+}
@@ -0,0 +1,79 @@
+// File: MappedDataset.java
+// Memory-mapped dataset
+package minet.data;
+
+import minet.Dataset;
+import org.jblas.DoubleMatrix;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A dataset whose instances stay in a memory-mapped binary file (see {@link BinaryFormat}).
+ * Rows are only copied onto the heap when a minibatch is built.
+ */
+public class MappedDataset extends Dataset {
+
+    DoubleBuffer mX;   // size x xDims, row by row
+    DoubleBuffer mY;   // size x yDims, row by row
+
+    /**
+     * Map a binary dataset file.
+     * @param path the path of the binary file
+     */
+    public MappedDataset(String path) throws IOException {
+        this(path, FileChannel.open(Paths.get(path), StandardOpenOption.READ));
+    }
+
+    private MappedDataset(String path, FileChannel ch) throws IOException {
+        this(path, ch, readHeader(ch, path));
+    }
+
+    private MappedDataset(String path, FileChannel ch, BinaryFormat.Header h) throws IOException {
+        super(h.size, h.xDims, h.yDims);
+        try {
+            // the mapping stays valid after the channel is closed
+            this.mX = BinaryFormat.map(ch, h.xOffset(), (long) h.size * h.xDims, path);
+            this.mY = BinaryFormat.map(ch, h.yOffset(), (long) h.size * h.yDims, path);
+        } finally {
+            ch.close();
+        }
+    }
+
+    private static BinaryFormat.Header readHeader(FileChannel ch, String path) throws IOException {
+        try {
+            return BinaryFormat.readHeader(ch, path);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void getInputRow(int i, double[] row) {
+        this.mX.get(this.order[i] * this.xDims, row, 0, this.xDims);
+    }
+
+    @Override
+    public void getOutputRow(int i, double[] row) {
+        this.mY.get(this.order[i] * this.yDims, row, 0, this.yDims);
+    }
+
+    @Override
+    public void fillMiniBatch(int start, int end, DoubleMatrix bX, DoubleMatrix bY, int offset) {
+        // fill the (column-major) batch matrices straight from the mapped file
+        int n = end - start;
+        for (int r = 0; r < n; r++) {
+            int row = this.order[start + r];
+            for (int j = 0, k = row * this.xDims; j < this.xDims; j++, k++) {
+                bX.data[offset + r + j * bX.rows] = this.mX.get(k);
+            }
+            for (int j = 0, k = row * this.yDims; j < this.yDims; j++, k++) {
+                bY.data[offset + r + j * bY.rows] = this.mY.get(k);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+// File: PartitionDataset.java
+// A contiguous part of another dataset
+package minet.data;
+
+import minet.Dataset;
+import org.jblas.DoubleMatrix;
+
+/**
+ * A view of the instances [from, to) of another dataset, with its own order, e.g. so that
+ * several training threads each take minibatches from their own part of a training set
+ * (see {@link #split(Dataset, int)}). Shuffling a partition only shuffles its own order;
+ * the source dataset must not be shuffled while its partitions are in use.
+ */
+public class PartitionDataset extends Dataset {
+
+    Dataset source;
+    int from;
+    double[] xRow, yRow;
+
+    /**
+     * @param source the dataset to read from
+     * @param from the position in source of the first instance
+     * @param to the position in source after the last instance
+     */
+    public PartitionDataset(Dataset source, int from, int to) {
+        super(to - from, source.getInputDims(), source.getOutDims());
+        this.source = source;
+        this.from = from;
+        this.xRow = new double[this.xDims];
+        this.yRow = new double[this.yDims];
+    }
+
+    /**
+     * Split a dataset into n partitions of (nearly) equal sizes.
+     */
+    public static Dataset[] split(Dataset source, int n) {
+        Dataset[] parts = new Dataset[n];
+        long size = source.getSize();
+        for (int k = 0; k < n; k++) {
+            parts[k] = new PartitionDataset(source, (int) (size * k / n), (int) (size * (k + 1) / n));
+        }
+        return parts;
+    }
+
+    @Override
+    public void getInputRow(int i, double[] row) {
+        this.source.getInputRow(this.from + this.order[i], row);
+    }
+
+    @Override
+    public void getOutputRow(int i, double[] row) {
+        this.source.getOutputRow(this.from + this.order[i], row);
+    }
+
+    @Override
+    public void fillMiniBatch(int start, int end, DoubleMatrix bX, DoubleMatrix bY, int offset) {
+        for (int r = 0; r < end - start; r++) {
+            this.getInputRow(start + r, this.xRow);
+            this.getOutputRow(start + r, this.yRow);
+            for (int j = 0, k = offset + r; j < this.xDims; j++, k += bX.rows) {
+                bX.data[k] = this.xRow[j];
+            }
+            for (int j = 0, k = offset + r; j < this.yDims; j++, k += bY.rows) {
+                bY.data[k] = this.yRow[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+// File: PrefetchingDataset.java
+// Dataset wrapper which assembles minibatches in the background
+package minet.data;
+
+import minet.Dataset;
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.Random;
+
+/**
+ * A dataset which assembles the next minibatches of another dataset on worker threads
+ * while the caller is busy with the current one.
+ *
+ * It is used exactly like the wrapped dataset (shuffle, then call
+ * {@link #getNextMiniBatch(int)} until it returns null). At most depth minibatch
+ * buffers exist: the one held by the caller and up to (depth - 1) being filled or
+ * waiting in the queue. As with {@link Dataset}, a returned minibatch is only valid
+ * until the next call.
+ */
+public class PrefetchingDataset extends Dataset {
+
+    /**
+     * A minibatch being assembled.
+     */
+    static class Task {
+        final Pair<DoubleMatrix> buffer;
+        final Future<?> done;
+
+        Task(Pair<DoubleMatrix> buffer, Future<?> done) {
+            this.buffer = buffer;
+            this.done = done;
+        }
+    }
+
+    Dataset source;
+    int depth;
+    ExecutorService pool;
+
+    int batchsize = -1;                 // batch size of the current epoch
+    int nextStart;                      // position of the next minibatch to be submitted
+    ArrayDeque<Task> pending = new ArrayDeque<Task>();
+    ArrayDeque<Pair<DoubleMatrix>> free = new ArrayDeque<Pair<DoubleMatrix>>();
+    Pair<DoubleMatrix> tail;            // buffer for the last (smaller) minibatch of an epoch
+    Pair<DoubleMatrix> current;         // the minibatch held by the caller
+
+    /**
+     * @param source the dataset to read from
+     * @param nThreads the number of worker threads
+     * @param depth the number of minibatch buffers (2 for double buffering, 3 for triple buffering, ...)
+     */
+    public PrefetchingDataset(Dataset source, int nThreads, int depth) {
+        super(0, source.getInputDims(), source.getOutDims());
+        if (depth < 2) {
+            throw new IllegalArgumentException("depth must be at least 2");
+        }
+        this.source = source;
+        this.size = source.getSize();
+        this.depth = depth;
+        this.pool = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, "minet-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public PrefetchingDataset(Dataset source) {
+        this(source, 1, 3);
+    }
+
+    @Override
+    public void reset() {
+        this.drain();
+        this.source.reset();
+        this.nextStart = 0;
+    }
+
+    @Override
+    public void shuffle(Random rnd) {
+        // workers read the order of the source, so wait for them before changing it
+        this.drain();
+        this.source.shuffle(rnd);
+        this.nextStart = 0;
+    }
+
+    @Override
+    public void getInputRow(int i, double[] row) {
+        this.source.getInputRow(i, row);
+    }
+
+    @Override
+    public void getOutputRow(int i, double[] row) {
+        this.source.getOutputRow(i, row);
+    }
+
+    @Override
+    public void fillMiniBatch(int start, int end, DoubleMatrix bX, DoubleMatrix bY, int offset) {
+        this.source.fillMiniBatch(start, end, bX, bY, offset);
+    }
+
+    @Override
+    public void setSparseInputs(boolean sparse) {
+        this.drain();
+        this.free.clear();
+        this.tail = null;
+        super.setSparseInputs(sparse);
+    }
+
+    @Override
+    public Pair<DoubleMatrix> getNextMiniBatch(int batchsize) {
+        if (batchsize != this.batchsize) {
+            this.drain();
+            this.free.clear();
+            this.tail = null;
+            this.batchsize = batchsize;
+        }
+        this.release();
+        this.submit();
+
+        Task task = this.pending.poll();
+        if (task == null) {
+            // end of the epoch
+            this.nextStart = 0;
+            return null;
+        }
+        this.await(task);
+        this.current = task.buffer;
+        this.submit();
+        return this.current;
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void close() {
+        this.drain();
+        this.pool.shutdown();
+    }
+
+    /**
+     * Fill the queue with up to (depth - 1) minibatches.
+     */
+    void submit() {
+        int held = this.current == null ? 0 : 1;
+        while (this.pending.size() + held < this.depth && this.nextStart < this.size) {
+            final int start = this.nextStart;
+            final int end = Math.min(start + this.batchsize, this.size);
+            this.nextStart = end;
+
+            final Pair<DoubleMatrix> b = this.buffer(end - start);
+            this.pending.add(new Task(b, this.pool.submit(() -> {
+                this.source.fillMiniBatch(start, end, b.first, b.second);
+                indexInputs(b.first);
+            })));
+        }
+    }
+
+    Pair<DoubleMatrix> buffer(int n) {
+        if (n != this.batchsize) {
+            if (this.tail == null || this.tail.first.rows != n) {
+                this.tail = new Pair<DoubleMatrix>(this.newInputBatch(n), new DoubleMatrix(n, this.yDims));
+            }
+            return this.tail;
+        }
+        Pair<DoubleMatrix> b = this.free.poll();
+        if (b == null) {
+            b = new Pair<DoubleMatrix>(this.newInputBatch(n), new DoubleMatrix(n, this.yDims));
+        }
+        return b;
+    }
+
+    /**
+     * Take back the minibatch held by the caller.
+     */
+    void release() {
+        if (this.current != null) {
+            if (this.current != this.tail) {
+                this.free.add(this.current);
+            }
+            this.current = null;
+        }
+    }
+
+    /**
+     * Wait for all submitted minibatches and drop them.
+     */
+    void drain() {
+        this.release();
+        Task task;
+        while ((task = this.pending.poll()) != null) {
+            this.await(task);
+            if (task.buffer != this.tail) {
+                this.free.add(task.buffer);
+            }
+        }
+    }
+
+    void await(Task task) {
+        try {
+            task.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
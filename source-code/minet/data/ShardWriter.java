@@ -0,0 +1,130 @@
+// File: ShardWriter.java
+// Writer of sharded datasets
+package minet.data;
+
+import minet.Dataset;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes instances, one at a time, into a directory of fixed-size shards which can be
+ * read back by {@link ShardedDataset}. Each shard is a file in the binary format (see
+ * {@link BinaryFormat}), so only one shard has to be held in memory while writing.
+ */
+public class ShardWriter {
+
+    File dir;
+    int xDims;
+    int yDims;
+    int shardSize;
+    double[] X;   // rows of the current shard, row by row
+    double[] Y;
+    int n;        // number of rows in the current shard
+    int nShards;
+    int nWritten; // number of rows in the shards written
+
+    /**
+     * @param dir the directory of the shards (created if it does not exist)
+     * @param shardSize the number of instances per shard
+     */
+    public ShardWriter(String dir, int xDims, int yDims, int shardSize) throws IOException {
+        this.dir = new File(dir);
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException(dir + ": cannot create directory");
+        }
+        this.xDims = xDims;
+        this.yDims = yDims;
+        this.shardSize = shardSize;
+        this.X = new double[shardSize * xDims];
+        this.Y = new double[shardSize * yDims];
+    }
+
+    /**
+     * Add an instance.
+     */
+    public void add(double[] x, double[] y) throws IOException {
+        System.arraycopy(x, 0, this.X, this.n * this.xDims, this.xDims);
+        System.arraycopy(y, 0, this.Y, this.n * this.yDims, this.yDims);
+        if (++this.n == this.shardSize) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Add n instances.
+     * @param X an [n x xDims] array, row by row
+     * @param Y an [n x yDims] array, row by row
+     */
+    public void add(int n, double[] X, double[] Y) throws IOException {
+        for (int i = 0; i < n; ) {
+            int m = Math.min(n - i, this.shardSize - this.n);
+            System.arraycopy(X, i * this.xDims, this.X, this.n * this.xDims, m * this.xDims);
+            System.arraycopy(Y, i * this.yDims, this.Y, this.n * this.yDims, m * this.yDims);
+            i += m;
+            this.n += m;
+            if (this.n == this.shardSize) {
+                this.flush();
+            }
+        }
+    }
+
+    /**
+     * Write the last (possibly smaller) shard.
+     */
+    public void close() throws IOException {
+        if (this.n > 0) {
+            this.flush();
+        }
+    }
+
+    void flush() throws IOException {
+        File f = new File(this.dir, String.format("shard-%05d%s", this.nShards++, ShardedDataset.SUFFIX));
+        new Dataset(this.n, this.xDims, this.yDims, this.X, this.Y).saveBinary(f.getPath());
+        this.nWritten += this.n;
+        this.n = 0;
+    }
+
+    /**
+     * Write a dataset into shards.
+     */
+    public static void write(Dataset data, String dir, int shardSize) throws IOException {
+        ShardWriter w = new ShardWriter(dir, data.getInputDims(), data.getOutDims(), shardSize);
+        double[] x = new double[data.getInputDims()];
+        double[] y = new double[data.getOutDims()];
+        for (int i = 0; i < data.getSize(); i++) {
+            data.getInputRow(i, x);
+            data.getOutputRow(i, y);
+            w.add(x, y);
+        }
+        w.close();
+    }
+
+    /**
+     * Convert a txt dataset (see {@link Dataset#loadTxt(String)}) into shards, a shard at a
+     * time (see {@link TxtParser#parse(String, int, TxtParser.Blocks)}), so that the txt file
+     * never has to fit in memory.
+     * Usage: ShardWriter [input.txt] [output_dir] [shard_size]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: ShardWriter [input.txt] [output_dir] [shard_size]");
+            return;
+        }
+        int shardSize = Integer.parseInt(args[2]);
+        ShardWriter[] w = new ShardWriter[1];
+        TxtParser.parse(args[0], shardSize, new TxtParser.Blocks() {
+            @Override
+            public void start(int size, int xDims, int yDims) throws IOException {
+                w[0] = new ShardWriter(args[1], xDims, yDims, shardSize);
+            }
+
+            @Override
+            public void block(int n, double[] X, double[] Y) throws IOException {
+                w[0].add(n, X, Y);
+            }
+        });
+        w[0].close();
+        System.out.printf("%s: %d instances written to %d shards in %s\n", args[0], w[0].nWritten, w[0].nShards, args[1]);
+    }
+}
@@ -0,0 +1,302 @@
+// File: ShardedDataset.java
+// Out-of-core dataset streamed from shards
+package minet.data;
+
+import minet.Dataset;
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A dataset streamed from a directory of shards written by {@link ShardWriter}, for
+ * training sets which do not fit in memory.
+ *
+ * Shards are loaded on demand: the instances asked for are read from the current shard,
+ * and while they are, the next one (in the order of the epoch) is loaded in the background.
+ * So at most two shards (plus the minibatch matrices) are in memory at any time.
+ * {@link #shuffle(Random)} shuffles the order of the shards, and the instances within each
+ * shard when it is loaded.
+ *
+ * Like any other dataset, it can be read through {@link #getNextMiniBatch(int)}, or wrapped
+ * (e.g. in a {@link PrefetchingDataset} or an {@link AugmentingDataset}) and read through
+ * {@link #fillMiniBatch(int, int, DoubleMatrix, DoubleMatrix, int)} and the row getters.
+ * Instances should be read in the order of the epoch: any position can be read, but one in
+ * another shard than the current or the next one loads that shard again. The readers are
+ * synchronized, as they move the current shard.
+ */
+public class ShardedDataset extends Dataset {
+
+    public static final String SUFFIX = ".bin";
+
+    String[] paths;
+    int[] shardSizes;
+    int[] shardOrder;    // shardOrder[k] is the k-th shard of an epoch
+    int[] shardStarts;   // shardStarts[k] is the position of the first instance of the k-th shard in the epoch
+    long[] shardSeeds;   // seeds for shuffling the instances of each shard, 0 for no shuffling
+
+    int k = -1;          // position of the current shard in shardOrder, -1 if none
+    Dataset shard;       // the current shard
+    Future<Dataset> next;    // the shard after the current one, being loaded
+    ExecutorService loader;
+
+    /**
+     * @param dir a directory of shards
+     */
+    public ShardedDataset(String dir) throws IOException {
+        this(listShards(dir));
+    }
+
+    /**
+     * @param paths the paths of the shards, all with the same dimensions
+     */
+    public ShardedDataset(String[] paths) throws IOException {
+        this(paths, readHeaders(paths));
+    }
+
+    private ShardedDataset(String[] paths, BinaryFormat.Header[] headers) {
+        super(0, headers[0].xDims, headers[0].yDims);
+        this.paths = paths;
+        this.shardSizes = new int[paths.length];
+        this.shardOrder = new int[paths.length];
+        this.shardStarts = new int[paths.length + 1];
+        this.shardSeeds = new long[paths.length];
+        for (int s = 0; s < paths.length; s++) {
+            this.shardSizes[s] = headers[s].size;
+            this.shardOrder[s] = s;
+            this.size += headers[s].size;
+        }
+        this.computeStarts();
+        this.loader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "minet-shard-loader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static String[] listShards(String dir) throws IOException {
+        String[] names = new File(dir).list((d, name) -> name.endsWith(SUFFIX));
+        if (names == null || names.length == 0) {
+            throw new IOException(dir + ": no shards found");
+        }
+        Arrays.sort(names);
+        String[] paths = new String[names.length];
+        for (int s = 0; s < names.length; s++) {
+            paths[s] = new File(dir, names[s]).getPath();
+        }
+        return paths;
+    }
+
+    static BinaryFormat.Header[] readHeaders(String[] paths) throws IOException {
+        BinaryFormat.Header[] headers = new BinaryFormat.Header[paths.length];
+        for (int s = 0; s < paths.length; s++) {
+            try (FileChannel ch = FileChannel.open(Paths.get(paths[s]), StandardOpenOption.READ)) {
+                headers[s] = BinaryFormat.readHeader(ch, paths[s]);
+            }
+            if (headers[s].xDims != headers[0].xDims || headers[s].yDims != headers[0].yDims) {
+                throw new IOException(paths[s] + ": dimensions differ from " + paths[0]);
+            }
+        }
+        return headers;
+    }
+
+    void computeStarts() {
+        for (int k = 0; k < this.shardOrder.length; k++) {
+            this.shardStarts[k + 1] = this.shardStarts[k] + this.shardSizes[this.shardOrder[k]];
+        }
+    }
+
+    /**
+     * Shuffle the order of the shards, and draw the seeds for shuffling the instances
+     * within each shard.
+     */
+    @Override
+    public synchronized void shuffle(Random rnd) {
+        // the loader thread reads the order and the seeds, so stop it first
+        this.unload();
+        for (int i = this.shardOrder.length - 1; i > 0; i--) {
+            int index = rnd.nextInt(i + 1);
+            int tmp = this.shardOrder[i];
+            this.shardOrder[i] = this.shardOrder[index];
+            this.shardOrder[index] = tmp;
+        }
+        for (int s = 0; s < this.shardSeeds.length; s++) {
+            long seed;
+            do {
+                seed = rnd.nextLong();
+            } while (seed == 0);
+            this.shardSeeds[s] = seed;
+        }
+        this.computeStarts();
+        this.currIndex = 0;
+    }
+
+    @Override
+    public synchronized void getInputRow(int i, double[] row) {
+        int k = this.shardIndex(i);
+        this.shard(k).getInputRow(i - this.shardStarts[k], row);
+    }
+
+    @Override
+    public synchronized void getOutputRow(int i, double[] row) {
+        int k = this.shardIndex(i);
+        this.shard(k).getOutputRow(i - this.shardStarts[k], row);
+    }
+
+    /**
+     * A range may span the end of a shard and the start of the next one.
+     */
+    @Override
+    public synchronized void fillMiniBatch(int start, int end, DoubleMatrix bX, DoubleMatrix bY, int offset) {
+        while (start < end) {
+            int k = this.shardIndex(start);
+            int take = Math.min(end, this.shardStarts[k + 1]) - start;
+            int from = start - this.shardStarts[k];
+            this.shard(k).fillMiniBatch(from, from + take, bX, bY, offset);
+            start += take;
+            offset += take;
+        }
+    }
+
+    /**
+     * Stop the loader thread.
+     */
+    public synchronized void close() {
+        this.unload();
+        this.loader.shutdown();
+    }
+
+    /**
+     * @return the position in shardOrder of the shard holding the i-th instance of the epoch
+     */
+    int shardIndex(int i) {
+        if (i < 0 || i >= this.size) {
+            throw new IndexOutOfBoundsException("instance " + i + " of " + this.size);
+        }
+        int k = Arrays.binarySearch(this.shardStarts, i);
+        if (k < 0) {
+            return -k - 2;
+        }
+        // skip the empty shards starting at the same position
+        while (this.shardStarts[k + 1] == i) {
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Make the k-th shard of the epoch the current shard (loading it, unless it is the
+     * current or the next one), and start loading the shard after it.
+     */
+    Dataset shard(int k) {
+        if (k == this.k) {
+            return this.shard;
+        }
+        Future<Dataset> f = this.next;
+        this.next = null;
+        if (f != null && k == this.k + 1) {
+            this.shard = await(f);
+        } else {
+            if (f != null) {
+                await(f);
+            }
+            this.shard = this.load(k);
+        }
+        this.k = k;
+        if (k + 1 < this.shardOrder.length) {
+            this.next = this.loader.submit(() -> this.load(k + 1));
+        }
+        return this.shard;
+    }
+
+    /**
+     * Drop the current shard and wait for the loader thread.
+     */
+    void unload() {
+        if (this.next != null) {
+            await(this.next);
+            this.next = null;
+        }
+        this.shard = null;
+        this.k = -1;
+    }
+
+    Dataset load(int k) {
+        int s = this.shardOrder[k];
+        try {
+            Dataset d = Dataset.loadBinary(this.paths[s]);
+            if (this.shardSeeds[s] != 0) {
+                d.shuffle(new Random(this.shardSeeds[s]));
+            }
+            return d;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Dataset await(Future<Dataset> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Check that a sharded dataset gives the same minibatches when read directly and when
+     * wrapped in a {@link PrefetchingDataset}, and the same instances as the dataset it was
+     * written from.
+     * Usage: ShardedDataset [input.txt] [shard_dir] [shard_size] [batchsize]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("usage: ShardedDataset [input.txt] [shard_dir] [shard_size] [batchsize]");
+            return;
+        }
+        Dataset data = Dataset.loadTxt(args[0]);
+        ShardWriter.write(data, args[1], Integer.parseInt(args[2]));
+        int batchsize = Integer.parseInt(args[3]);
+
+        ShardedDataset direct = new ShardedDataset(args[1]);
+        ShardedDataset wrapped = new ShardedDataset(args[1]);
+        PrefetchingDataset prefetching = new PrefetchingDataset(wrapped, 2, 3);
+        direct.shuffle(new Random(1));
+        prefetching.shuffle(new Random(1));
+
+        // the sums of the rows, which do not depend on the order of the instances
+        double sum = 0, shardedSum = 0;
+        Pair<DoubleMatrix> a, b;
+        data.reset();
+        while ((a = data.getNextMiniBatch(batchsize)) != null) {
+            sum += a.first.sum() + a.second.sum();
+        }
+        boolean same = true;
+        int n = 0;
+        while ((a = direct.getNextMiniBatch(batchsize)) != null) {
+            b = prefetching.getNextMiniBatch(batchsize);
+            same &= b != null && a.first.equals(b.first) && a.second.equals(b.second);
+            shardedSum += a.first.sum() + a.second.sum();
+            n += a.first.rows;
+        }
+        same &= prefetching.getNextMiniBatch(batchsize) == null;
+        System.out.printf("%d instances in %d shards\n", n, direct.shardOrder.length);
+        System.out.println("same minibatches through PrefetchingDataset: " + same);
+        System.out.println("same instances as " + args[0] + ": " + (n == data.getSize() && Math.abs(sum - shardedSum) < 1e-6 * Math.max(1, Math.abs(sum))));
+        prefetching.close();
+        wrapped.close();
+        direct.close();
+    }
+}
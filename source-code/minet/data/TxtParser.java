@@ -0,0 +1,435 @@
+// File: TxtParser.java
+// Parallel parser for txt datasets
+package minet.data;
+
+import minet.Dataset;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A multi-threaded parser for the txt format described in {@link Dataset#loadTxt(String)}.
+ *
+ * The body of the file is split into line-aligned chunks, which are mapped into memory
+ * and parsed in parallel. Numbers are parsed directly from the bytes into the preallocated
+ * (contiguous) row storage, so no String or String[] is created per line.
+ */
+public class TxtParser {
+
+    static final int CHUNKS_PER_THREAD = 4;
+    static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    // exact powers of ten, for the fast path of number parsing
+    static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Parse a txt dataset using one thread per available processor.
+     * @param path a string, the path of the txt file.
+     * @return a Dataset
+     */
+    public static Dataset parse(String path) throws IOException {
+        return parse(path, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parse a txt dataset.
+     * @param path a string, the path of the txt file.
+     * @param nThreads the number of threads
+     * @return a Dataset
+     */
+    public static Dataset parse(String path, int nThreads) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            long[] header = readHeader(ch, path);
+            int size = (int) header[0];
+            int xDims = (int) header[1];
+            int yDims = (int) header[2];
+
+            double[] X = new double[size * xDims];
+            double[] Y = new double[size * yDims];
+
+            // split the body into line-aligned chunks
+            long bodyStart = header[3];
+            int nChunks = (int) Math.max((long) nThreads * CHUNKS_PER_THREAD,
+                    (fileSize - bodyStart) / MAX_CHUNK_BYTES + 1);
+            List<Long> bounds = new ArrayList<Long>();
+            bounds.add(bodyStart);
+            for (int c = 1; c < nChunks; c++) {
+                long b = alignToLine(ch, bodyStart + (fileSize - bodyStart) * c / nChunks, fileSize);
+                if (b > bounds.get(bounds.size() - 1)) {
+                    bounds.add(b);
+                }
+            }
+            if (fileSize > bounds.get(bounds.size() - 1)) {
+                bounds.add(fileSize);
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, nThreads));
+            try {
+                // pass 1: count the lines of each chunk to find the first row of every chunk
+                List<Chunk> chunks = new ArrayList<Chunk>();
+                List<Future<Integer>> counts = new ArrayList<Future<Integer>>();
+                for (int c = 0; c + 1 < bounds.size(); c++) {
+                    Chunk chunk = new Chunk(path, ch.map(FileChannel.MapMode.READ_ONLY, bounds.get(c),
+                            bounds.get(c + 1) - bounds.get(c)), size, xDims, yDims, X, Y);
+                    chunks.add(chunk);
+                    counts.add(pool.submit(chunk::countLines));
+                }
+                int row = 0;
+                for (int c = 0; c < chunks.size(); c++) {
+                    chunks.get(c).firstRow = row;
+                    row += get(counts.get(c));
+                }
+                if (row < size) {
+                    throw new IOException(path + ": expected " + size + " instances but found " + row);
+                }
+
+                // pass 2: parse the chunks
+                List<Future<Integer>> parsed = new ArrayList<Future<Integer>>();
+                for (Chunk chunk : chunks) {
+                    parsed.add(pool.submit(chunk::parse));
+                }
+                for (Future<Integer> f : parsed) {
+                    get(f);
+                }
+            } finally {
+                pool.shutdown();
+            }
+
+            return new Dataset(size, xDims, yDims, X, Y);
+        }
+    }
+
+    /**
+     * Receives the instances of a txt dataset a block of rows at a time (see
+     * {@link TxtParser#parse(String, int, Blocks)}).
+     */
+    public interface Blocks {
+        /**
+         * Called once, before the first block.
+         */
+        public void start(int size, int xDims, int yDims) throws IOException;
+
+        /**
+         * Called for each block, in the order of the file. The arrays are refilled for the
+         * next block, so they must be copied to be kept.
+         * @param n the number of instances of the block
+         * @param X an [n x xDims] array, row by row (it may be longer)
+         * @param Y an [n x yDims] array, row by row (it may be longer)
+         */
+        public void block(int n, double[] X, double[] Y) throws IOException;
+    }
+
+    /**
+     * Parse a txt dataset a block of at most blockRows instances at a time, on the calling
+     * thread, so that only one block is ever held in memory (e.g. to convert a file too
+     * large for memory into shards, see {@link ShardWriter}).
+     * @param path a string, the path of the txt file.
+     * @param blockRows the largest number of instances per block
+     * @param blocks the receiver of the blocks
+     */
+    public static void parse(String path, int blockRows, Blocks blocks) throws IOException {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("blockRows must be positive: " + blockRows);
+        }
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            long[] header = readHeader(ch, path);
+            int size = (int) header[0];
+            int xDims = (int) header[1];
+            int yDims = (int) header[2];
+            blocks.start(size, xDims, yDims);
+
+            int rows = Math.min(blockRows, size);
+            double[] X = new double[rows * xDims];
+            double[] Y = new double[rows * yDims];
+            long pos = header[3];
+            int done = 0;
+            while (done < size) {
+                int n = Math.min(rows, size - done);
+                // the mapped region only has to hold the lines of the block, it is not read ahead
+                long end = pos + MAX_CHUNK_BYTES >= fileSize ? fileSize : alignToLine(ch, pos + MAX_CHUNK_BYTES, fileSize);
+                Chunk chunk = new Chunk(path, ch.map(FileChannel.MapMode.READ_ONLY, pos, end - pos), n,
+                        xDims, yDims, X, Y);
+                chunk.firstLine = done;
+                int parsed = chunk.parse();
+                if (parsed == 0) {
+                    throw new IOException(path + ": expected " + size + " instances but found " + done);
+                }
+                blocks.block(parsed, X, Y);
+                done += parsed;
+                pos += chunk.pos;
+            }
+        }
+    }
+
+    /**
+     * Read the first line: [number of samples] [xDims] [yDims].
+     * @return the number of samples, xDims, yDims and the position of the second line
+     */
+    static long[] readHeader(FileChannel ch, String path) throws IOException {
+        MappedByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), 256));
+        int eol = 0;
+        while (eol < head.limit() && head.get(eol) != '\n') {
+            eol++;
+        }
+        if (eol == head.limit()) {
+            throw new IOException(path + ": missing header line");
+        }
+        byte[] line = new byte[eol];
+        head.get(0, line);
+        String[] ss = new String(line, StandardCharsets.ISO_8859_1).trim().split(" ");
+        return new long[] {Integer.valueOf(ss[0]), Integer.valueOf(ss[1]), Integer.valueOf(ss[2]), eol + 1};
+    }
+
+    /**
+     * @return the position right after the first '\n' at or after pos
+     */
+    static long alignToLine(FileChannel ch, long pos, long fileSize) throws IOException {
+        while (pos < fileSize) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(4096, fileSize - pos));
+            for (int i = 0; i < buf.limit(); i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += buf.limit();
+        }
+        return fileSize;
+    }
+
+    static int get(Future<Integer> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * A line-aligned part of the body of a txt file.
+     */
+    static class Chunk {
+        final String path;
+        final MappedByteBuffer buf;
+        final int size;
+        final int xDims;
+        final int yDims;
+        final double[] X;   // [size x xDims], row by row
+        final double[] Y;   // [size x yDims], row by row
+        int firstRow;
+        int firstLine;  // the number of instances of the file before the buffer of rows (for the error messages)
+        int pos;
+        byte[] scratch = new byte[64];  // for numbers which need the slow path
+
+        Chunk(String path, MappedByteBuffer buf, int size, int xDims, int yDims, double[] X, double[] Y) {
+            this.path = path;
+            this.buf = buf;
+            this.size = size;
+            this.xDims = xDims;
+            this.yDims = yDims;
+            this.X = X;
+            this.Y = Y;
+        }
+
+        int countLines() {
+            int n = 0;
+            int end = this.buf.limit();
+            for (int i = 0; i < end; i++) {
+                if (this.buf.get(i) == '\n') {
+                    n++;
+                }
+            }
+            // the last line may not end with '\n'
+            if (end > 0 && this.buf.get(end - 1) != '\n') {
+                n++;
+            }
+            return n;
+        }
+
+        int parse() throws IOException {
+            int end = this.buf.limit();
+            int row = this.firstRow;
+            this.pos = 0;
+            while (this.pos < end && row < this.size) {
+                parseRow(row, end);
+                row++;
+            }
+            return row - this.firstRow;
+        }
+
+        // each line: [entries of X] ; [entries of Y]
+        void parseRow(int row, int end) throws IOException {
+            int j = 0;
+            double[] dst = this.X;
+            int offset = row * this.xDims;
+            int dims = this.xDims;
+            while (true) {
+                skipSpaces(end);
+                if (this.pos >= end) {
+                    break;
+                }
+                byte c = this.buf.get(this.pos);
+                if (c == '\n') {
+                    this.pos++;
+                    break;
+                }
+                if (c == ';') {
+                    if (dst != this.X || j != this.xDims) {
+                        throw error(row, "expected " + this.xDims + " x entries but found " + j);
+                    }
+                    dst = this.Y;
+                    offset = row * this.yDims;
+                    dims = this.yDims;
+                    j = 0;
+                    this.pos++;
+                    continue;
+                }
+                if (j >= dims) {
+                    throw error(row, "too many entries");
+                }
+                dst[offset + j++] = parseNumber(row, end);
+            }
+            if (dst != this.Y || j != this.yDims) {
+                throw error(row, "expected " + this.xDims + " x entries and " + this.yDims + " y entries");
+            }
+        }
+
+        void skipSpaces(int end) {
+            while (this.pos < end) {
+                byte c = this.buf.get(this.pos);
+                if (c != ' ' && c != '\t' && c != '\r') {
+                    break;
+                }
+                this.pos++;
+            }
+        }
+
+        /**
+         * Parse a decimal number. Numbers whose significand fits in 53 bits and whose decimal
+         * exponent is at most 22 in magnitude are exactly computed with one multiplication or
+         * division (and so are correctly rounded); others go through Double.parseDouble.
+         */
+        double parseNumber(int row, int end) throws IOException {
+            int start = this.pos;
+            int p = start;
+            boolean neg = false;
+            byte c = this.buf.get(p);
+            if (c == '-' || c == '+') {
+                neg = c == '-';
+                p++;
+            }
+
+            long m = 0;
+            int digits = 0;     // significant digits in m
+            int exp10 = 0;
+            boolean seenDigit = false;
+            boolean exact = true;
+            for (; p < end; p++) {
+                c = this.buf.get(p);
+                if (c >= '0' && c <= '9') {
+                    seenDigit = true;
+                    if (digits < 18) {
+                        m = m * 10 + (c - '0');
+                        if (m > 0) {
+                            digits++;
+                        }
+                    } else {
+                        exp10++;
+                        exact &= c == '0';
+                    }
+                } else {
+                    break;
+                }
+            }
+            if (p < end && this.buf.get(p) == '.') {
+                for (p++; p < end; p++) {
+                    c = this.buf.get(p);
+                    if (c >= '0' && c <= '9') {
+                        seenDigit = true;
+                        if (digits < 18) {
+                            m = m * 10 + (c - '0');
+                            if (m > 0) {
+                                digits++;
+                            }
+                            exp10--;
+                        } else {
+                            exact &= c == '0';
+                        }
+                    } else {
+                        break;
+                    }
+                }
+            }
+            if (p < end && (this.buf.get(p) == 'e' || this.buf.get(p) == 'E')) {
+                p++;
+                boolean eneg = false;
+                if (p < end && (this.buf.get(p) == '-' || this.buf.get(p) == '+')) {
+                    eneg = this.buf.get(p) == '-';
+                    p++;
+                }
+                int e = 0;
+                for (; p < end && (c = this.buf.get(p)) >= '0' && c <= '9'; p++) {
+                    e = Math.min(e * 10 + (c - '0'), 100000);
+                }
+                exp10 += eneg ? -e : e;
+            }
+
+            if (seenDigit && (p == end || isSeparator(this.buf.get(p)))) {
+                this.pos = p;
+                if (exact && m < (1L << 53) && exp10 >= -22 && exp10 <= 22) {
+                    double v = exp10 >= 0 ? m * POW10[exp10] : m / POW10[-exp10];
+                    return neg ? -v : v;
+                }
+            } else {
+                // not a plain decimal number (e.g. NaN or Infinity): take the whole token
+                while (p < end && !isSeparator(this.buf.get(p))) {
+                    p++;
+                }
+                this.pos = p;
+            }
+
+            // slow path
+            int len = this.pos - start;
+            if (len > this.scratch.length) {
+                this.scratch = new byte[len];
+            }
+            this.buf.get(start, this.scratch, 0, len);
+            try {
+                return Double.parseDouble(new String(this.scratch, 0, len, StandardCharsets.ISO_8859_1));
+            } catch (NumberFormatException e) {
+                throw error(row, e.getMessage());
+            }
+        }
+
+        static boolean isSeparator(byte c) {
+            return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == ';';
+        }
+
+        IOException error(int row, String msg) {
+            return new IOException(String.format("%s: line %d: %s", this.path, this.firstLine + row + 2, msg));
+        }
+    }
+}
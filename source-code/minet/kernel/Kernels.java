@@ -0,0 +1,85 @@
+// File: Kernels.java
+// Element-wise kernels of the activation layers
+package minet.kernel;
+
+/**
+ * Element-wise kernels used by the activation layers (e.g. {@link minet.layer.Sigmoid}),
+ * and the int8 dot product of {@link minet.layer.QuantizedLinear}.
+ * Each kernel makes a single pass over primitive arrays, with no temporary matrices.
+ *
+ * {@link #get()} returns the SIMD implementation built on the Java Vector API
+ * ({@link VectorKernels}) if the jdk.incubator.vector module is available
+ * (java --add-modules jdk.incubator.vector ...), and the scalar implementation
+ * ({@link ScalarKernels}) otherwise, or if the system property minet.kernels is "scalar".
+ * When the SIMD implementation cannot be loaded, the reason is printed on standard error.
+ */
+public abstract class Kernels {
+
+    static final Kernels INSTANCE = load();
+
+    static Kernels load() {
+        if (!"scalar".equals(System.getProperty("minet.kernels"))) {
+            try {
+                // loaded by name, so that this class still links without the module
+                return (Kernels) Class.forName("minet.kernel.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall back to the scalar kernels, saying why (e.g. no jdk.incubator.vector module)
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                System.err.println("minet: using ScalarKernels, VectorKernels unavailable: " + cause);
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /**
+     * @return the kernels used by the layers
+     */
+    public static Kernels get() {
+        return INSTANCE;
+    }
+
+    /** y[i] = max(0, x[i]) for i in [0, n) */
+    public abstract void reluForward(double[] x, double[] y, int n);
+
+    /** gx[i] = y[i] > 0 ? gy[i] : 0, where y is the output of reluForward */
+    public abstract void reluBackward(double[] y, double[] gy, double[] gx, int n);
+
+    /** y[i] = 1 / (1 + exp(-x[i])) */
+    public abstract void sigmoidForward(double[] x, double[] y, int n);
+
+    /** gx[i] = gy[i] * y[i] * (1 - y[i]), where y is the output of sigmoidForward */
+    public abstract void sigmoidBackward(double[] y, double[] gy, double[] gx, int n);
+
+    /** y[i] = tanh(x[i]) */
+    public abstract void tanhForward(double[] x, double[] y, int n);
+
+    /** gx[i] = gy[i] * (1 - y[i]^2), where y is the output of tanhForward */
+    public abstract void tanhBackward(double[] y, double[] gy, double[] gx, int n);
+
+    /** Single precision version of {@link #reluForward(double[], double[], int)} */
+    public abstract void reluForward(float[] x, float[] y, int n);
+
+    /** Single precision version of {@link #reluBackward(double[], double[], double[], int)} */
+    public abstract void reluBackward(float[] y, float[] gy, float[] gx, int n);
+
+    /** Single precision version of {@link #sigmoidForward(double[], double[], int)} */
+    public abstract void sigmoidForward(float[] x, float[] y, int n);
+
+    /** Single precision version of {@link #sigmoidBackward(double[], double[], double[], int)} */
+    public abstract void sigmoidBackward(float[] y, float[] gy, float[] gx, int n);
+
+    /** Single precision version of {@link #tanhForward(double[], double[], int)} */
+    public abstract void tanhForward(float[] x, float[] y, int n);
+
+    /** Single precision version of {@link #tanhBackward(double[], double[], double[], int)} */
+    public abstract void tanhBackward(float[] y, float[] gy, float[] gx, int n);
+
+    /** sum_i a[aOff + i] * b[bOff + i] for i in [0, n), accumulated in 32-bit integers */
+    public abstract int dot(byte[] a, int aOff, byte[] b, int bOff, int n);
+
+    /**
+     * out[c] = dot(a, aOff, b, bOff + c * stride, n) for c in [0, 4): four dot products
+     * sharing the same a, which is read once.
+     */
+    public abstract void dot4(byte[] a, int aOff, byte[] b, int bOff, int stride, int n, int[] out);
+}
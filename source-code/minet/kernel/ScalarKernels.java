@@ -0,0 +1,179 @@
+// File: ScalarKernels.java
+// Scalar element-wise kernels
+package minet.kernel;
+
+/**
+ * Plain Java loops, one fused pass per kernel. Also used by {@link VectorKernels} for the
+ * elements left over after the last full vector.
+ */
+public class ScalarKernels extends Kernels {
+
+    public ScalarKernels() { }
+
+    @Override
+    public void reluForward(double[] x, double[] y, int n) {
+        reluForward(x, y, 0, n);
+    }
+
+    static void reluForward(double[] x, double[] y, int from, int to) {
+        for (int i = from; i < to; i++) {
+            y[i] = x[i] > 0 ? x[i] : 0;
+        }
+    }
+
+    @Override
+    public void reluBackward(double[] y, double[] gy, double[] gx, int n) {
+        reluBackward(y, gy, gx, 0, n);
+    }
+
+    static void reluBackward(double[] y, double[] gy, double[] gx, int from, int to) {
+        for (int i = from; i < to; i++) {
+            gx[i] = y[i] > 0 ? gy[i] : 0;
+        }
+    }
+
+    @Override
+    public void sigmoidForward(double[] x, double[] y, int n) {
+        sigmoidForward(x, y, 0, n);
+    }
+
+    static void sigmoidForward(double[] x, double[] y, int from, int to) {
+        for (int i = from; i < to; i++) {
+            y[i] = 1 / (1 + Math.exp(-x[i]));
+        }
+    }
+
+    @Override
+    public void sigmoidBackward(double[] y, double[] gy, double[] gx, int n) {
+        sigmoidBackward(y, gy, gx, 0, n);
+    }
+
+    static void sigmoidBackward(double[] y, double[] gy, double[] gx, int from, int to) {
+        for (int i = from; i < to; i++) {
+            gx[i] = gy[i] * (y[i] * (1 - y[i]));
+        }
+    }
+
+    @Override
+    public void tanhForward(double[] x, double[] y, int n) {
+        tanhForward(x, y, 0, n);
+    }
+
+    static void tanhForward(double[] x, double[] y, int from, int to) {
+        for (int i = from; i < to; i++) {
+            y[i] = Math.tanh(x[i]);
+        }
+    }
+
+    @Override
+    public void tanhBackward(double[] y, double[] gy, double[] gx, int n) {
+        tanhBackward(y, gy, gx, 0, n);
+    }
+
+    static void tanhBackward(double[] y, double[] gy, double[] gx, int from, int to) {
+        for (int i = from; i < to; i++) {
+            gx[i] = gy[i] * (1 - y[i] * y[i]);
+        }
+    }
+
+    @Override
+    public void reluForward(float[] x, float[] y, int n) {
+        reluForward(x, y, 0, n);
+    }
+
+    static void reluForward(float[] x, float[] y, int from, int to) {
+        for (int i = from; i < to; i++) {
+            y[i] = x[i] > 0 ? x[i] : 0;
+        }
+    }
+
+    @Override
+    public void reluBackward(float[] y, float[] gy, float[] gx, int n) {
+        reluBackward(y, gy, gx, 0, n);
+    }
+
+    static void reluBackward(float[] y, float[] gy, float[] gx, int from, int to) {
+        for (int i = from; i < to; i++) {
+            gx[i] = y[i] > 0 ? gy[i] : 0;
+        }
+    }
+
+    @Override
+    public void sigmoidForward(float[] x, float[] y, int n) {
+        sigmoidForward(x, y, 0, n);
+    }
+
+    static void sigmoidForward(float[] x, float[] y, int from, int to) {
+        for (int i = from; i < to; i++) {
+            y[i] = (float) (1 / (1 + Math.exp(-x[i])));
+        }
+    }
+
+    @Override
+    public void sigmoidBackward(float[] y, float[] gy, float[] gx, int n) {
+        sigmoidBackward(y, gy, gx, 0, n);
+    }
+
+    static void sigmoidBackward(float[] y, float[] gy, float[] gx, int from, int to) {
+        for (int i = from; i < to; i++) {
+            gx[i] = gy[i] * (y[i] * (1 - y[i]));
+        }
+    }
+
+    @Override
+    public void tanhForward(float[] x, float[] y, int n) {
+        tanhForward(x, y, 0, n);
+    }
+
+    static void tanhForward(float[] x, float[] y, int from, int to) {
+        for (int i = from; i < to; i++) {
+            y[i] = (float) Math.tanh(x[i]);
+        }
+    }
+
+    @Override
+    public void tanhBackward(float[] y, float[] gy, float[] gx, int n) {
+        tanhBackward(y, gy, gx, 0, n);
+    }
+
+    static void tanhBackward(float[] y, float[] gy, float[] gx, int from, int to) {
+        for (int i = from; i < to; i++) {
+            gx[i] = gy[i] * (1 - y[i] * y[i]);
+        }
+    }
+
+    @Override
+    public int dot(byte[] a, int aOff, byte[] b, int bOff, int n) {
+        return dot(a, aOff, b, bOff, 0, n);
+    }
+
+    static int dot(byte[] a, int aOff, byte[] b, int bOff, int from, int to) {
+        int s = 0;
+        for (int i = from; i < to; i++) {
+            s += a[aOff + i] * b[bOff + i];
+        }
+        return s;
+    }
+
+    @Override
+    public void dot4(byte[] a, int aOff, byte[] b, int bOff, int stride, int n, int[] out) {
+        out[0] = out[1] = out[2] = out[3] = 0;
+        dot4(a, aOff, b, bOff, stride, 0, n, out);
+    }
+
+    /** adds the four dot products over [from, to) to out */
+    static void dot4(byte[] a, int aOff, byte[] b, int bOff, int stride, int from, int to, int[] out) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int i = from; i < to; i++) {
+            int x = a[aOff + i];
+            s0 += x * b[bOff + i];
+            s1 += x * b[bOff + stride + i];
+            s2 += x * b[bOff + 2 * stride + i];
+            s3 += x * b[bOff + 3 * stride + i];
+        }
+        out[0] += s0;
+        out[1] += s1;
+        out[2] += s2;
+        out[3] += s3;
+    }
+}
@@ -0,0 +1,206 @@
+// File: VectorKernels.java
+// SIMD element-wise kernels
+package minet.kernel;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels built on the Java Vector API (jdk.incubator.vector), processing a full
+ * machine vector of elements per step, with the elements left over after the last
+ * full vector handled by {@link ScalarKernels}.
+ *
+ * This class needs --add-modules jdk.incubator.vector both to compile and to run;
+ * {@link Kernels#get()} only loads it when the module is present.
+ */
+public class VectorKernels extends Kernels {
+
+    static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;
+    // bytes widened to ints by the dot products, PARTS vectors of I per vector of B: as many
+    // bytes as I has ints, but at least 64 bits, the smallest shape (e.g. with 128-bit vectors)
+    static final VectorSpecies<Byte> B = VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, 8 * I.length())));
+    static final int PARTS = B.length() / I.length();
+
+    public VectorKernels() { }
+
+    @Override
+    public void reluForward(double[] x, double[] y, int n) {
+        int bound = D.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += D.length()) {
+            DoubleVector.fromArray(D, x, i).max(0.).intoArray(y, i);
+        }
+        ScalarKernels.reluForward(x, y, i, n);
+    }
+
+    @Override
+    public void reluBackward(double[] y, double[] gy, double[] gx, int n) {
+        DoubleVector zero = DoubleVector.zero(D);
+        int bound = D.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += D.length()) {
+            VectorMask<Double> active = DoubleVector.fromArray(D, y, i).compare(VectorOperators.GT, 0.);
+            zero.blend(DoubleVector.fromArray(D, gy, i), active).intoArray(gx, i);
+        }
+        ScalarKernels.reluBackward(y, gy, gx, i, n);
+    }
+
+    @Override
+    public void sigmoidForward(double[] x, double[] y, int n) {
+        int bound = D.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += D.length()) {
+            DoubleVector e = DoubleVector.fromArray(D, x, i).neg().lanewise(VectorOperators.EXP);
+            DoubleVector.broadcast(D, 1.).div(e.add(1.)).intoArray(y, i);
+        }
+        ScalarKernels.sigmoidForward(x, y, i, n);
+    }
+
+    @Override
+    public void sigmoidBackward(double[] y, double[] gy, double[] gx, int n) {
+        int bound = D.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += D.length()) {
+            DoubleVector v = DoubleVector.fromArray(D, y, i);
+            DoubleVector.fromArray(D, gy, i).mul(v.mul(v.neg().add(1.))).intoArray(gx, i);
+        }
+        ScalarKernels.sigmoidBackward(y, gy, gx, i, n);
+    }
+
+    @Override
+    public void tanhForward(double[] x, double[] y, int n) {
+        int bound = D.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += D.length()) {
+            DoubleVector.fromArray(D, x, i).lanewise(VectorOperators.TANH).intoArray(y, i);
+        }
+        ScalarKernels.tanhForward(x, y, i, n);
+    }
+
+    @Override
+    public void tanhBackward(double[] y, double[] gy, double[] gx, int n) {
+        int bound = D.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += D.length()) {
+            DoubleVector v = DoubleVector.fromArray(D, y, i);
+            DoubleVector.fromArray(D, gy, i).mul(v.mul(v).neg().add(1.)).intoArray(gx, i);
+        }
+        ScalarKernels.tanhBackward(y, gy, gx, i, n);
+    }
+
+    @Override
+    public void reluForward(float[] x, float[] y, int n) {
+        int bound = F.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += F.length()) {
+            FloatVector.fromArray(F, x, i).max(0f).intoArray(y, i);
+        }
+        ScalarKernels.reluForward(x, y, i, n);
+    }
+
+    @Override
+    public void reluBackward(float[] y, float[] gy, float[] gx, int n) {
+        FloatVector zero = FloatVector.zero(F);
+        int bound = F.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += F.length()) {
+            VectorMask<Float> active = FloatVector.fromArray(F, y, i).compare(VectorOperators.GT, 0f);
+            zero.blend(FloatVector.fromArray(F, gy, i), active).intoArray(gx, i);
+        }
+        ScalarKernels.reluBackward(y, gy, gx, i, n);
+    }
+
+    @Override
+    public void sigmoidForward(float[] x, float[] y, int n) {
+        int bound = F.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += F.length()) {
+            FloatVector e = FloatVector.fromArray(F, x, i).neg().lanewise(VectorOperators.EXP);
+            FloatVector.broadcast(F, 1f).div(e.add(1f)).intoArray(y, i);
+        }
+        ScalarKernels.sigmoidForward(x, y, i, n);
+    }
+
+    @Override
+    public void sigmoidBackward(float[] y, float[] gy, float[] gx, int n) {
+        int bound = F.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += F.length()) {
+            FloatVector v = FloatVector.fromArray(F, y, i);
+            FloatVector.fromArray(F, gy, i).mul(v.mul(v.neg().add(1f))).intoArray(gx, i);
+        }
+        ScalarKernels.sigmoidBackward(y, gy, gx, i, n);
+    }
+
+    @Override
+    public void tanhForward(float[] x, float[] y, int n) {
+        int bound = F.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += F.length()) {
+            FloatVector.fromArray(F, x, i).lanewise(VectorOperators.TANH).intoArray(y, i);
+        }
+        ScalarKernels.tanhForward(x, y, i, n);
+    }
+
+    @Override
+    public void tanhBackward(float[] y, float[] gy, float[] gx, int n) {
+        int bound = F.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += F.length()) {
+            FloatVector v = FloatVector.fromArray(F, y, i);
+            FloatVector.fromArray(F, gy, i).mul(v.mul(v).neg().add(1f)).intoArray(gx, i);
+        }
+        ScalarKernels.tanhBackward(y, gy, gx, i, n);
+    }
+
+    @Override
+    public int dot(byte[] a, int aOff, byte[] b, int bOff, int n) {
+        IntVector acc = IntVector.zero(I);
+        int bound = B.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += B.length()) {
+            ByteVector ba = ByteVector.fromArray(B, a, aOff + i);
+            ByteVector bb = ByteVector.fromArray(B, b, bOff + i);
+            for (int part = 0; part < PARTS; part++) {
+                IntVector va = (IntVector) ba.convertShape(VectorOperators.B2I, I, part);
+                IntVector vb = (IntVector) bb.convertShape(VectorOperators.B2I, I, part);
+                acc = acc.add(va.mul(vb));
+            }
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + ScalarKernels.dot(a, aOff, b, bOff, i, n);
+    }
+
+    @Override
+    public void dot4(byte[] a, int aOff, byte[] b, int bOff, int stride, int n, int[] out) {
+        IntVector acc0 = IntVector.zero(I), acc1 = acc0, acc2 = acc0, acc3 = acc0;
+        int bound = B.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += B.length()) {
+            ByteVector ba = ByteVector.fromArray(B, a, aOff + i);
+            ByteVector b0 = ByteVector.fromArray(B, b, bOff + i);
+            ByteVector b1 = ByteVector.fromArray(B, b, bOff + stride + i);
+            ByteVector b2 = ByteVector.fromArray(B, b, bOff + 2 * stride + i);
+            ByteVector b3 = ByteVector.fromArray(B, b, bOff + 3 * stride + i);
+            for (int part = 0; part < PARTS; part++) {
+                IntVector va = (IntVector) ba.convertShape(VectorOperators.B2I, I, part);
+                acc0 = acc0.add(va.mul((IntVector) b0.convertShape(VectorOperators.B2I, I, part)));
+                acc1 = acc1.add(va.mul((IntVector) b1.convertShape(VectorOperators.B2I, I, part)));
+                acc2 = acc2.add(va.mul((IntVector) b2.convertShape(VectorOperators.B2I, I, part)));
+                acc3 = acc3.add(va.mul((IntVector) b3.convertShape(VectorOperators.B2I, I, part)));
+            }
+        }
+        out[0] = acc0.reduceLanes(VectorOperators.ADD);
+        out[1] = acc1.reduceLanes(VectorOperators.ADD);
+        out[2] = acc2.reduceLanes(VectorOperators.ADD);
+        out[3] = acc3.reduceLanes(VectorOperators.ADD);
+        ScalarKernels.dot4(a, aOff, b, bOff, stride, i, n, out);
+    }
+}
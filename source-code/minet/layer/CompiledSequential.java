@@ -0,0 +1,621 @@
+// File: CompiledSequential.java
+// Execution plan of a Sequential network
+package minet.layer;
+
+import minet.backend.Backend;
+import minet.kernel.Kernels;
+import minet.loss.CrossEntropy;
+import minet.loss.Loss;
+import minet.loss.SoftmaxCrossEntropy;
+import minet.util.CsrMatrix;
+import org.jblas.DoubleMatrix;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An execution plan of a {@link Sequential} network for a given minibatch size and mode
+ * (training or inference), created by {@link Sequential#compile(int, int, boolean, Loss)}.
+ * It is a drop-in {@link Layer}, sharing the weights and gradients of the network.
+ *
+ * Compiling
+ * <ul>
+ * <li>fuses each Linear layer with the activation (ReLU, Sigmoid, TanH) after it: the
+ * activation is applied in place to the output of the product, and in backward its gradient
+ * is computed in place in the incoming gradient; in inference mode, a final Softmax is fused
+ * in the same way;</li>
+ * <li>in training mode, fuses a final Softmax with a {@link CrossEntropy} loss: forward still
+ * returns the probabilities, but the loss returned by {@link #getLoss()} is
+ * {@link SoftmaxCrossEntropy} on the logits, whose gradient backward passes on to the layer
+ * producing the logits without going through the softmax;</li>
+ * <li>picks the kernels of each step: the matrix products of the current {@link Backend},
+ * the activations of {@link Kernels#get()}, and the sparse product of {@link Linear} for
+ * inputs in sparse form ({@link CsrMatrix});</li>
+ * <li>assigns the intermediate matrices to buffers by liveness: each matrix is live from the
+ * step writing it to the last step reading it (in backward too), and matrices whose live
+ * ranges do not overlap share a buffer.</li>
+ * </ul>
+ * Other layers run as they are, with their own matrices. The output of forward and the
+ * result of backward have buffers of their own, valid until the next call. A minibatch of
+ * another size (e.g. the last one of an epoch) gets a plan of its own.
+ */
+public class CompiledSequential implements Layer {
+
+    /** The activations which can be fused with a Linear layer. */
+    enum Activation {
+        RELU, SIGMOID, TANH, SOFTMAX;
+
+        static Activation of(Layer layer) {
+            return layer instanceof ReLU ? RELU : layer instanceof Sigmoid ? SIGMOID
+                    : layer instanceof TanH ? TANH : layer instanceof Softmax ? SOFTMAX : null;
+        }
+
+        /** y = act(x) (y may be x) */
+        void forward(DoubleMatrix X, DoubleMatrix Y) {
+            Kernels k = Kernels.get();
+            switch (this) {
+                case RELU: k.reluForward(X.data, Y.data, X.length); break;
+                case SIGMOID: k.sigmoidForward(X.data, Y.data, X.length); break;
+                case TANH: k.tanhForward(X.data, Y.data, X.length); break;
+                default: Softmax.softmax(X, Y);
+            }
+        }
+
+        /** gX = act'(Y) * gY (gX may be gY) */
+        void backward(DoubleMatrix Y, DoubleMatrix gY, DoubleMatrix gX) {
+            Kernels k = Kernels.get();
+            switch (this) {
+                case RELU: k.reluBackward(Y.data, gY.data, gX.data, Y.length); break;
+                case SIGMOID: k.sigmoidBackward(Y.data, gY.data, gX.data, Y.length); break;
+                case TANH: k.tanhBackward(Y.data, gY.data, gX.data, Y.length); break;
+                default:
+                    // gX[:,j] = Y[:,j] * (gY[:,j] - sum_i gY[:,i] Y[:,i]), as in Softmax
+                    int n = Y.rows;
+                    for (int i = 0; i < n; i++) {
+                        double sum = 0;
+                        for (int j = i; j < Y.length; j += n) {
+                            sum += gY.data[j] * Y.data[j];
+                        }
+                        for (int j = i; j < Y.length; j += n) {
+                            gX.data[j] = Y.data[j] * (gY.data[j] - sum);
+                        }
+                    }
+            }
+        }
+    }
+
+    /**
+     * A step of the plan: one or more layers, reading the output of the step before it.
+     */
+    abstract class Step {
+        int outdims;
+        Layer[] layers;       // the layers of the network run by this step
+        boolean planned;      // whether the output and the input gradient are in planned buffers
+
+        /** @param Y the planned output, or null */
+        abstract DoubleMatrix forward(DoubleMatrix X, DoubleMatrix Y);
+
+        /** @param gX the planned input gradient, or null */
+        abstract DoubleMatrix backward(DoubleMatrix gY, DoubleMatrix gX);
+
+        /** whether backward reads the input of forward */
+        abstract boolean keepsInput();
+
+        /** whether backward reads the output of forward */
+        abstract boolean keepsOutput();
+
+        abstract String kernels();
+    }
+
+    /**
+     * A Linear layer, optionally followed by an activation applied in place.
+     */
+    class LinearStep extends Step {
+        Linear linear;
+        Activation act;
+        DoubleMatrix X, Y;
+
+        LinearStep(Linear linear, Layer actLayer) {
+            this.linear = linear;
+            this.act = actLayer != null ? Activation.of(actLayer) : null;
+            this.outdims = linear.W.columns;
+            this.layers = actLayer != null ? new Layer[] {linear, actLayer} : new Layer[] {linear};
+            this.planned = true;
+        }
+
+        @Override
+        DoubleMatrix forward(DoubleMatrix X, DoubleMatrix Y) {
+            if (X instanceof CsrMatrix) {
+                this.linear.forwardSparse((CsrMatrix) X, Y);
+            } else {
+                Backend.get().mmul(X, false, this.linear.W, false, 0, Y);
+                double[] b = this.linear.b.data;
+                for (int j = 0, n = Y.rows; j < this.outdims; j++) {
+                    for (int i = j * n; i < (j + 1) * n; i++) {
+                        Y.data[i] += b[j];
+                    }
+                }
+            }
+            if (this.act != null) {
+                this.act.forward(Y, Y);
+            }
+            this.X = X;
+            this.Y = Y;
+            return Y;
+        }
+
+        @Override
+        DoubleMatrix backward(DoubleMatrix gY, DoubleMatrix gX) {
+            // the gradient w.r.t. the output of the product, in place
+            if (this.act != null) {
+                this.act.backward(this.Y, gY, gY);
+            }
+            if (this.X instanceof CsrMatrix) {
+                this.linear.Xs = (CsrMatrix) this.X;
+                return this.linear.backwardSparse(gY, gX);
+            }
+            Backend.get().mmul(this.X, true, gY, false, 1, this.linear.gW);
+            this.linear.maskGradient();
+            this.linear.addColumnSums(gY, this.linear.gb);
+            if (this.linear.noInputGradient) {
+                return null;
+            }
+            return Backend.get().mmul(gY, false, this.linear.W, true, 0, gX);
+        }
+
+        @Override
+        boolean keepsInput() {
+            return true;
+        }
+
+        @Override
+        boolean keepsOutput() {
+            return this.act != null;
+        }
+
+        @Override
+        String kernels() {
+            return Backend.get().getClass().getSimpleName() + " gemm (or sparse rows for a CsrMatrix input)"
+                    + (this.act != null ? " + in-place " + this.act.name().toLowerCase()
+                    + (this.act != Activation.SOFTMAX ? " (" + Kernels.get().getClass().getSimpleName() + ")" : "") : "");
+        }
+    }
+
+    /**
+     * An activation not preceded by a Linear layer.
+     */
+    class ActivationStep extends Step {
+        Activation act;
+        DoubleMatrix Y;
+
+        ActivationStep(Layer layer, int dims) {
+            this.act = Activation.of(layer);
+            this.outdims = dims;
+            this.layers = new Layer[] {layer};
+            this.planned = true;
+        }
+
+        @Override
+        DoubleMatrix forward(DoubleMatrix X, DoubleMatrix Y) {
+            this.act.forward(X, Y);
+            this.Y = Y;
+            return Y;
+        }
+
+        @Override
+        DoubleMatrix backward(DoubleMatrix gY, DoubleMatrix gX) {
+            this.act.backward(this.Y, gY, gX);
+            return gX;
+        }
+
+        @Override
+        boolean keepsInput() {
+            return false;
+        }
+
+        @Override
+        boolean keepsOutput() {
+            return true;
+        }
+
+        @Override
+        String kernels() {
+            return this.act.name().toLowerCase() + " (" + Kernels.get().getClass().getSimpleName() + ")";
+        }
+    }
+
+    /**
+     * The final Softmax in training with a {@link CrossEntropy} loss: it keeps its input, the
+     * logits, for {@link FusedLoss}, and backward passes the gradient of that loss, which is
+     * already w.r.t. the logits, on as it is.
+     */
+    class SoftmaxStep extends ActivationStep {
+        DoubleMatrix X;
+
+        SoftmaxStep(Layer layer, int dims) {
+            super(layer, dims);
+        }
+
+        @Override
+        DoubleMatrix forward(DoubleMatrix X, DoubleMatrix Y) {
+            this.X = X;
+            return super.forward(X, Y);
+        }
+
+        @Override
+        DoubleMatrix backward(DoubleMatrix gY, DoubleMatrix gX) {
+            if (gY == fusedLoss.dY) {
+                return gY;
+            }
+            return super.backward(gY, gX);
+        }
+
+        @Override
+        boolean keepsInput() {
+            return true;
+        }
+    }
+
+    /**
+     * {@link SoftmaxCrossEntropy} on the logits kept by the {@link SoftmaxStep}, for the
+     * probabilities returned by the last forward.
+     */
+    class FusedLoss implements Loss {
+        SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
+        DoubleMatrix dY;   // the gradient of the last forward, w.r.t. the logits
+
+        @Override
+        public double forward(DoubleMatrix Y, DoubleMatrix Yhat) {
+            SoftmaxStep step = (SoftmaxStep) steps.get(steps.size() - 1);
+            if (Yhat != step.Y) {
+                throw new IllegalArgumentException("the fused loss only applies to the output of the last forward");
+            }
+            double lossVal = this.loss.forward(Y, step.X);
+            this.dY = this.loss.backward();
+            return lossVal;
+        }
+
+        @Override
+        public DoubleMatrix backward() {
+            return this.dY;
+        }
+
+        /**
+         * @return a {@link CrossEntropy} loss, for the probabilities of a replica of the network
+         */
+        @Override
+        public Loss replicate() {
+            return new CrossEntropy();
+        }
+
+        @Override
+        public String toString() {
+            return "SoftmaxCrossEntropyLoss (fused)";
+        }
+    }
+
+    /**
+     * Any other layer, run through its own forward and backward.
+     */
+    class LayerStep extends Step {
+        LayerStep(Layer layer, int outdims) {
+            this.outdims = outdims;
+            this.layers = new Layer[] {layer};
+            this.planned = false;
+        }
+
+        @Override
+        DoubleMatrix forward(DoubleMatrix X, DoubleMatrix Y) {
+            return training ? this.layers[0].forward(X) : this.layers[0].infer(X, false);
+        }
+
+        @Override
+        DoubleMatrix backward(DoubleMatrix gY, DoubleMatrix gX) {
+            return this.layers[0].backward(gY);
+        }
+
+        @Override
+        boolean keepsInput() {
+            return true;
+        }
+
+        @Override
+        boolean keepsOutput() {
+            return true;
+        }
+
+        @Override
+        String kernels() {
+            return "own forward and backward";
+        }
+    }
+
+    /**
+     * A matrix of the plan: rows x columns, live from step first to step last of the
+     * schedule (forward steps 0..m-1, then backward steps m..2m-1).
+     */
+    static class Tensor {
+        int columns;
+        int first, last;
+        boolean own;       // returned to the caller: not shared
+        int buffer = -1;
+
+        Tensor(int columns, int first, int last, boolean own) {
+            this.columns = columns;
+            this.first = first;
+            this.last = last;
+            this.own = own;
+        }
+    }
+
+    /**
+     * The buffers and matrices for one minibatch size.
+     */
+    class Plan {
+        DoubleMatrix[] outputs;    // outputs[i]: output of step i, or null if not planned
+        DoubleMatrix[] gradients;  // gradients[i]: gradient w.r.t. the input of step i, or null
+        int rows;
+        long bytes;
+
+        Plan(int n) {
+            this.rows = n;
+            int m = steps.size();
+            this.outputs = new DoubleMatrix[m];
+            this.gradients = new DoubleMatrix[m];
+            Tensor[] out = new Tensor[m];
+            Tensor[] grad = new Tensor[m];
+            List<Tensor> tensors = new ArrayList<Tensor>();
+            for (int i = 0; i < m; i++) {
+                Step s = steps.get(i);
+                if (!s.planned) {
+                    continue;
+                }
+                // read by the next step, and in backward by the next step or by this one
+                int last = i + 1;
+                if (training) {
+                    if (i + 1 < m && steps.get(i + 1).keepsInput()) {
+                        last = Math.max(last, 2 * m - 1 - (i + 1));
+                    }
+                    if (s.keepsOutput()) {
+                        last = Math.max(last, 2 * m - 1 - i);
+                    }
+                }
+                tensors.add(out[i] = new Tensor(s.outdims, i, last, i == m - 1));
+                if (training) {
+                    // written by the backward of step i, read by the backward of step i - 1
+                    int indims = i == 0 ? inDims : steps.get(i - 1).outdims;
+                    tensors.add(grad[i] = new Tensor(indims, 2 * m - 1 - i, 2 * m - i, i == 0));
+                }
+            }
+
+            // first fit on the buffers free at the start of each tensor, smallest first
+            List<int[]> buffers = new ArrayList<int[]>();   // {size, last step}
+            tensors.sort(Comparator.comparingInt(t -> t.first));
+            for (Tensor t : tensors) {
+                int size = n * t.columns;
+                if (!t.own) {
+                    int best = -1;
+                    for (int b = 0; b < buffers.size(); b++) {
+                        int[] buf = buffers.get(b);
+                        if (buf[1] >= 0 && buf[1] < t.first
+                                && (best < 0 || fits(buf[0], buffers.get(best)[0], size))) {
+                            best = b;
+                        }
+                    }
+                    if (best >= 0) {
+                        int[] buf = buffers.get(best);
+                        buf[0] = Math.max(buf[0], size);
+                        buf[1] = t.last;
+                        t.buffer = best;
+                        continue;
+                    }
+                }
+                t.buffer = buffers.size();
+                buffers.add(new int[] {size, t.own ? -1 : t.last});
+            }
+
+            double[][] data = new double[buffers.size()][];
+            for (int b = 0; b < buffers.size(); b++) {
+                data[b] = new double[buffers.get(b)[0]];
+                this.bytes += 8L * data[b].length;
+            }
+            for (int i = 0; i < m; i++) {
+                this.outputs[i] = out[i] != null ? view(data[out[i].buffer], n, out[i].columns) : null;
+                this.gradients[i] = grad[i] != null ? view(data[grad[i].buffer], n, grad[i].columns) : null;
+            }
+        }
+    }
+
+    /**
+     * Whether a buffer of the size candidate is a better fit than one of the size best for a
+     * matrix of the given size: the smallest one large enough, or else the largest one.
+     */
+    static boolean fits(int candidate, int best, int size) {
+        if (candidate >= size) {
+            return best < size || candidate < best;
+        }
+        return best < size && candidate > best;
+    }
+
+    /**
+     * @return a [rows x columns] matrix on the first rows * columns entries of data
+     */
+    static DoubleMatrix view(double[] data, int rows, int columns) {
+        DoubleMatrix M = new DoubleMatrix();
+        M.data = data;
+        M.rows = rows;
+        M.columns = columns;
+        M.length = rows * columns;
+        return M;
+    }
+
+    Sequential net;
+    boolean training;
+    int inDims;
+    Loss netLoss;  // the loss given to compile
+    Loss loss;
+    FusedLoss fusedLoss;  // or null
+    List<Step> steps = new ArrayList<Step>();
+    long unplannedColumns;   // of the matrices of the uncompiled network
+    Map<Integer, Plan> plans = new HashMap<Integer, Plan>();
+    Plan plan;   // of the last minibatch
+
+    /**
+     * See {@link Sequential#compile(int, int, boolean, Loss)}.
+     */
+    CompiledSequential(Sequential net, int batchsize, int indims, boolean training, Loss loss) {
+        if (net.precision != Precision.DOUBLE) {
+            throw new IllegalStateException("only double precision networks can be compiled");
+        }
+        this.net = net;
+        this.training = training;
+        this.inDims = indims;
+        this.netLoss = loss;
+        this.loss = loss;
+
+        Layer[] layers = net.layers;
+        int dims = indims;
+        for (int i = 0; i < layers.length; i++) {
+            Layer layer = layers[i];
+            Activation next = i + 1 < layers.length ? Activation.of(layers[i + 1]) : null;
+            boolean last = i == layers.length - 1;
+            Step step;
+            if (training && last && layer instanceof Softmax && loss instanceof CrossEntropy) {
+                // softmax + cross entropy on the logits
+                step = new SoftmaxStep(layer, dims);
+                this.loss = this.fusedLoss = new FusedLoss();
+            } else if (layer instanceof Linear) {
+                // fuse the activation after it, except in training a softmax or a final activation
+                // (whose output gradient is the loss's, which backward must not overwrite)
+                boolean fuse = next != null
+                        && (!training || next != Activation.SOFTMAX && i + 1 < layers.length - 1);
+                step = new LinearStep((Linear) layer, fuse ? layers[i + 1] : null);
+                if (fuse) {
+                    i++;
+                }
+            } else if (Activation.of(layer) != null && Activation.of(layer) != Activation.SOFTMAX) {
+                step = new ActivationStep(layer, dims);
+            } else {
+                step = new LayerStep(layer, layer.infer(DoubleMatrix.zeros(1, dims), false).columns);
+            }
+            this.steps.add(step);
+            dims = step.outdims;
+        }
+
+        // what the layers hold with a workspace: an output, and in training an input gradient
+        dims = indims;
+        for (Layer layer : layers) {
+            int out = layer instanceof Linear ? ((Linear) layer).W.columns
+                    : Activation.of(layer) != null ? dims : layer.infer(DoubleMatrix.zeros(1, dims), false).columns;
+            this.unplannedColumns += out + (training ? dims : 0);
+            dims = out;
+        }
+        this.plan = this.getPlan(batchsize);
+    }
+
+    Plan getPlan(int n) {
+        Plan p = this.plans.get(n);
+        if (p == null) {
+            p = new Plan(n);
+            this.plans.put(n, p);
+        }
+        return p;
+    }
+
+    /**
+     * @return the loss to train the compiled network with: the given loss, or, if the final
+     * Softmax was fused with a {@link CrossEntropy} loss, {@link SoftmaxCrossEntropy} on the
+     * logits (the given loss still works, without the fusion)
+     */
+    public Loss getLoss() {
+        return this.loss;
+    }
+
+    @Override
+    public DoubleMatrix forward(DoubleMatrix X) {
+        this.plan = this.getPlan(X.rows);
+        for (int i = 0; i < this.steps.size(); i++) {
+            X = this.steps.get(i).forward(X, this.plan.outputs[i]);
+        }
+        return X;
+    }
+
+    @Override
+    public DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        return this.forward(X);
+    }
+
+    @Override
+    public DoubleMatrix backward(DoubleMatrix gY) {
+        if (!this.training) {
+            throw new IllegalStateException("the network was compiled for inference");
+        }
+        for (int i = this.steps.size() - 1; i >= 0; i--) {
+            gY = this.steps.get(i).backward(gY, this.plan.gradients[i]);
+        }
+        return gY;
+    }
+
+    @Override
+    public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
+        return this.net.getAllWeights(weights);
+    }
+
+    @Override
+    public List<DoubleMatrix> getAllGradients(List<DoubleMatrix> grads) {
+        return this.net.getAllGradients(grads);
+    }
+
+    /**
+     * @return the same plan on a replica of the network (see {@link Sequential#replicate()}),
+     * for the minibatch size of the last forward
+     */
+    @Override
+    public Layer replicate() {
+        return new CompiledSequential((Sequential) this.net.replicate(), this.plan.rows, this.inDims, this.training,
+                this.netLoss);
+    }
+
+    /**
+     * @return the bytes of the matrices of the plan of the last minibatch size
+     */
+    public long getPlannedBytes() {
+        return this.plan.bytes;
+    }
+
+    /**
+     * @return the bytes of the matrices the network would use without compiling, with a
+     * {@link Workspace} (an output, and in training an input gradient, for each layer), for
+     * the last minibatch size
+     */
+    public long getUnplannedBytes() {
+        return 8L * this.plan.rows * this.unplannedColumns;
+    }
+
+    /**
+     * @return the memory of the plan compared with the uncompiled network
+     */
+    public String report() {
+        return String.format("%d steps for %d layers, %.1f KB of matrices instead of %.1f KB (%.1f%% saved)",
+                this.steps.size(), this.net.layers.length, this.getPlannedBytes() / 1024.,
+                this.getUnplannedBytes() / 1024., 100 * (1 - this.getPlannedBytes() / (double) this.getUnplannedBytes()));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append(this.training ? "compiled for training (\n" : "compiled for inference (\n");
+        for (Step s : this.steps) {
+            StringBuilder names = new StringBuilder();
+            for (Layer layer : s.layers) {
+                names.append(names.length() > 0 ? " + " : "").append(layer);
+            }
+            str.append("    ").append(names).append(": ").append(s.kernels()).append("\n");
+        }
+        str.append(")");
+        return str.toString();
+    }
+}
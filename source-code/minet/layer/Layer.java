@@ -2,6 +2,7 @@
 // An interface for all layers.
 package minet.layer;
 
+import minet.util.Matrices;
 import org.jblas.*;
 
 import java.util.List;
@@ -25,7 +26,8 @@ public interface Layer {
      * when applying {@link forward}.
      * @param gY a [minibatch_size x output_dims] matrix, each row is dL/dY
      * @return a [minibatch_size x input_dims] matrix, each row is dL/dX
-     * where L is a loss function (@see {@link minet.loss.Loss}).
+     * where L is a loss function (@see {@link minet.loss.Loss}); null only for a first
+     * layer told to skip it (see {@link Linear#setInputGradient(boolean)}).
      */
     public DoubleMatrix backward(DoubleMatrix gY);
 
@@ -44,4 +46,86 @@ public interface Layer {
      */
     public List<DoubleMatrix> getAllGradients(List<DoubleMatrix> grads);
 
+    /**
+     * Set the floating point precision of the layer. With {@link Precision#FLOAT} the
+     * parameters are held as {@link FloatMatrix} and trained through
+     * {@link #forward(FloatMatrix)} and {@link #backward(FloatMatrix)}.
+     * This must be called before creating an optimizer for the layer.
+     * @param precision the precision
+     */
+    public default void setPrecision(Precision precision) { }
+
+    /**
+     * Make the layer write its outputs and input gradients into matrices of a workspace
+     * instead of allocating new ones at each call (double precision only). Setting the
+     * workspace the layer already has again keeps the slots it reserved in it.
+     * @param ws a workspace, or null to allocate again
+     */
+    public default void setWorkspace(Workspace ws) { }
+
+    /**
+     * Switch between training mode (the default) and inference mode. In inference mode,
+     * forward keeps nothing for backward (see {@link #infer(DoubleMatrix, boolean)}), so
+     * backward must not be called.
+     * @param training true for training mode, false for inference mode
+     */
+    public default void setTraining(boolean training) { }
+
+    /**
+     * Compute the output of the layer without keeping anything for backward.
+     * @param X a [minibatch_size x input_dims] matrix, each row is an input instance
+     * @param overwrite whether X may be overwritten, e.g. because it is an intermediate
+     *                  result of a network; if false, the output must not be X itself
+     * @return a [minibatch_size x output_dims] matrix, each row is the output of the corresponding instance
+     */
+    public default DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        return this.forward(X);
+    }
+
+    /**
+     * Drop the matrices forward keeps for backward, once backward has used them, so that
+     * they can be garbage collected before the next forward (see
+     * {@link Sequential#setCheckpointing(int)}).
+     */
+    public default void release() { }
+
+    /**
+     * Create a replica of the layer, e.g. for data-parallel training: the replica shares
+     * the weights of the layer, but has its own gradients and its own copies of whatever
+     * forward keeps for backward. Replicas must be created after {@link #setPrecision(Precision)}.
+     * @return a new layer
+     */
+    public Layer replicate();
+
+    /**
+     * Single precision version of {@link #forward(DoubleMatrix)}. By default, the input is
+     * converted to double precision and the output back to single precision; the layers
+     * which support {@link Precision#FLOAT} compute in single precision instead.
+     */
+    public default FloatMatrix forward(FloatMatrix X) {
+        return this.forward(Matrices.toDouble(X)).toFloat();
+    }
+
+    /**
+     * Single precision version of {@link #backward(DoubleMatrix)}. By default, converts as
+     * {@link #forward(FloatMatrix)} does.
+     */
+    public default FloatMatrix backward(FloatMatrix gY) {
+        return this.backward(Matrices.toDouble(gY)).toFloat();
+    }
+
+    /**
+     * Single precision version of {@link #getAllWeights(List)}.
+     */
+    public default List<FloatMatrix> getAllFloatWeights(List<FloatMatrix> weights) {
+        return weights;
+    }
+
+    /**
+     * Single precision version of {@link #getAllGradients(List)}.
+     */
+    public default List<FloatMatrix> getAllFloatGradients(List<FloatMatrix> grads) {
+        return grads;
+    }
+
 }
@@ -2,6 +2,9 @@
 // Linear layer
 package minet.layer;
 
+import minet.backend.Backend;
+import minet.util.CsrMatrix;
+import minet.util.Matrices;
 import org.jblas.*;
 
 import java.util.List;
@@ -20,9 +23,23 @@ public class Linear implements Layer, java.io.Serializable {
 
     // for backward
     DoubleMatrix X;   // store input X for computing backward
+    CsrMatrix Xs;     // or the input in sparse form, see forwardSparse
     DoubleMatrix gW;  // gradient of W
     DoubleMatrix gb;  // gradient of b
 
+    // single precision copies, used instead of the above in Precision.FLOAT
+    Precision precision = Precision.DOUBLE;
+    FloatMatrix Wf, bf, Xf, gWf, gbf;
+
+    transient Workspace ws;
+    int outSlot, gradSlot;
+
+    // 1 for the weights kept by pruning, 0 for the pruned ones (null: no pruning)
+    DoubleMatrix mask;
+    FloatMatrix maskf;
+
+    boolean noInputGradient;  // see setInputGradient
+
     /**
      * An interface for weight initialization.
      *
@@ -106,40 +123,377 @@ public class Linear implements Layer, java.io.Serializable {
         this.b = b;
     }
 
+    /**
+     * Switch the parameters to the given precision. The values of W and b are copied
+     * between the double and the single precision matrices.
+     */
+    @Override
+    public void setPrecision(Precision precision) {
+        if (precision == Precision.FLOAT && this.precision != Precision.FLOAT) {
+            if (this.Wf == null) {
+                this.Wf = this.W.toFloat();
+                this.bf = this.b.toFloat();
+                this.gWf = FloatMatrix.zeros(this.W.rows, this.W.columns);
+                this.gbf = FloatMatrix.zeros(this.b.rows, this.b.columns);
+            } else {
+                Matrices.copy(this.W, this.Wf);
+                Matrices.copy(this.b, this.bf);
+            }
+        } else if (precision == Precision.DOUBLE && this.precision == Precision.FLOAT) {
+            Matrices.copy(this.Wf, this.W);
+            Matrices.copy(this.bf, this.b);
+        }
+        this.precision = precision;
+    }
+
+    /**
+     * Prune the weights: the weights where mask is 0 are set to 0, and their gradients are
+     * kept at 0 by backward, so that training (e.g. fine-tuning with {@link minet.optim.SGD})
+     * leaves them at 0.
+     * @param mask a matrix of the size of W, with 1 for the weights to keep and 0 for the others,
+     *             or null to stop masking the gradients
+     */
+    public void setMask(DoubleMatrix mask) {
+        this.mask = mask;
+        this.maskf = mask != null ? mask.toFloat() : null;
+        if (mask != null) {
+            this.W.muli(mask);
+            if (this.Wf != null) {
+                this.Wf.muli(this.maskf);
+            }
+        }
+    }
+
+    /**
+     * Whether backward computes the gradient w.r.t. the input (the default). For the first
+     * layer of a network, whose input is data (e.g. minibatches in sparse form, see
+     * {@link minet.Dataset#setSparseInputs(boolean)}), it can be skipped: backward then only
+     * computes the gradients of W and b, and returns null.
+     * @param needed false to skip the input gradient
+     */
+    public void setInputGradient(boolean needed) {
+        this.noInputGradient = !needed;
+    }
+
+    /**
+     * @return the weight matrix W (in double precision)
+     */
+    public DoubleMatrix getWeights() {
+        return this.precision == Precision.FLOAT ? Matrices.toDouble(this.Wf) : this.W;
+    }
+
+    /**
+     * @return the bias vector b (in double precision)
+     */
+    public DoubleMatrix getBias() {
+        return this.precision == Precision.FLOAT ? Matrices.toDouble(this.bf) : this.b;
+    }
+
+    @Override
+    public void setWorkspace(Workspace ws) {
+        if (ws != null && ws != this.ws) {
+            this.outSlot = ws.newSlot();
+            this.gradSlot = ws.newSlot();
+        }
+        this.ws = ws;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
+        if (this.precision == Precision.FLOAT) {
+            return Matrices.toDouble(this.forward(X.toFloat()));
+        }
+        if (X instanceof CsrMatrix) {
+            DoubleMatrix Y = this.ws != null ? this.ws.get(this.outSlot, X.rows, this.W.columns)
+                    : new DoubleMatrix(X.rows, this.W.columns);
+            this.forwardSparse((CsrMatrix) X, Y);
+            this.Xs = (CsrMatrix) X;  // not copied: a minibatch is left unchanged until the next one
+            this.X = null;
+            return Y;
+        }
+        this.Xs = null;
+        if (this.ws != null) {
+            DoubleMatrix Y = this.ws.get(this.outSlot, X.rows, this.W.columns);
+            Backend.get().mmul(X, false, this.W, false, 0, Y).addiRowVector(this.b);
+            this.X = X;  // not copied: the input is left unchanged until backward
+            return Y;
+        }
+
         // Y = X * W + b
-        DoubleMatrix Y = X.mmul(this.W).addiRowVector(this.b);
+        DoubleMatrix Y = Backend.get().mmul(X, this.W).addiRowVector(this.b);
         this.X = X.dup();
         return Y;
     }
 
+    @Override
+    public DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        if (this.precision == Precision.FLOAT) {
+            return Matrices.toDouble(Backend.get().mmul(X.toFloat(), this.Wf).addiRowVector(this.bf));
+        }
+        DoubleMatrix Y = this.ws != null ? this.ws.get(this.outSlot, X.rows, this.W.columns)
+                : new DoubleMatrix(X.rows, this.W.columns);
+        if (X instanceof CsrMatrix) {
+            this.forwardSparse((CsrMatrix) X, Y);
+            return Y;
+        }
+        return Backend.get().mmul(X, false, this.W, false, 0, Y).addiRowVector(this.b);
+    }
+
+    /**
+     * Y = X * W + b for an input in sparse form: row i of Y is b plus the rows of W of the
+     * nonzero entries of row i of X, weighted by these entries, so that the cost is
+     * proportional to the number of nonzero inputs instead of to indims. Four columns of Y
+     * are computed at a time, so that each nonzero entry is read once per four columns.
+     */
+    void forwardSparse(CsrMatrix X, DoubleMatrix Y) {
+        int n = X.rows;
+        int indims = this.W.rows;
+        int outdims = this.W.columns;
+        double[] w = this.W.data;
+        int j = 0;
+        for (; j + 4 <= outdims; j += 4) {
+            int w0 = j * indims, w1 = w0 + indims, w2 = w1 + indims, w3 = w2 + indims;
+            for (int i = 0; i < n; i++) {
+                double s0 = this.b.data[j], s1 = this.b.data[j + 1], s2 = this.b.data[j + 2], s3 = this.b.data[j + 3];
+                for (int p = X.rowPtr[i]; p < X.rowPtr[i + 1]; p++) {
+                    int c = X.colIdx[p];
+                    double v = X.values[p];
+                    s0 += v * w[w0 + c];
+                    s1 += v * w[w1 + c];
+                    s2 += v * w[w2 + c];
+                    s3 += v * w[w3 + c];
+                }
+                Y.data[j * n + i] = s0;
+                Y.data[(j + 1) * n + i] = s1;
+                Y.data[(j + 2) * n + i] = s2;
+                Y.data[(j + 3) * n + i] = s3;
+            }
+        }
+        for (; j < outdims; j++) {
+            int wj = j * indims;
+            for (int i = 0; i < n; i++) {
+                double s = this.b.data[j];
+                for (int p = X.rowPtr[i]; p < X.rowPtr[i + 1]; p++) {
+                    s += X.values[p] * w[wj + X.colIdx[p]];
+                }
+                Y.data[j * n + i] = s;
+            }
+        }
+    }
+
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
-        // gW = X^T * gY
-        this.gW.addi(this.X.transpose().mmul(gY));
+        if (this.precision == Precision.FLOAT) {
+            return Matrices.toDouble(this.backward(gY.toFloat()));
+        }
+        if (this.Xs != null) {
+            return this.backwardSparse(gY, this.ws != null ? this.ws.get(this.gradSlot, gY.rows, this.W.rows) : null);
+        }
+        if (this.ws != null) {
+            return this.backwardInto(gY);
+        }
+
+        // gW += X^T * gY
+        Backend.get().mmul(this.X, true, gY, false, 1, this.gW);
+        this.maskGradient();
 
         // gb = sum_row gY
         this.gb.addi(gY.columnSums());
 
+        if (this.noInputGradient) {
+            return null;
+        }
+        // gX = gY * W^T
+        return Backend.get().mmul(gY, false, this.W, true, 0, new DoubleMatrix(gY.rows, this.W.rows));
+    }
+
+    /**
+     * Backward into the workspace. The transposes of X and W are not materialised:
+     * the backend reads them in place, and accumulates X^T * gY directly into gW.
+     */
+    DoubleMatrix backwardInto(DoubleMatrix gY) {
+        int n = gY.rows;
+        int indims = this.W.rows;
+        int outdims = this.W.columns;
+
+        // gW += X^T * gY
+        Backend.get().mmul(this.X, true, gY, false, 1, this.gW);
+        this.maskGradient();
+
+        // gb += sum_row gY
+        this.addColumnSums(gY, this.gb);
+
+        if (this.noInputGradient) {
+            return null;
+        }
+        // gX = gY * W^T
+        DoubleMatrix gX = this.ws.get(this.gradSlot, n, indims);
+        return Backend.get().mmul(gY, false, this.W, true, 0, gX);
+    }
+
+    /**
+     * Backward after a forward on an input in sparse form: only the rows of gW of the
+     * nonzero inputs are updated. gX = gY * W^T is dense, as usual (unless skipped, see
+     * {@link #setInputGradient(boolean)}).
+     * @param gX the matrix to write gX into, or null to allocate it
+     * @return gX, or null if skipped
+     */
+    DoubleMatrix backwardSparse(DoubleMatrix gY, DoubleMatrix gX) {
+        int n = gY.rows;
+        int indims = this.W.rows;
+        CsrMatrix X = this.Xs;
+
+        // gW += X^T * gY, four columns at a time as in forwardSparse
+        double[] g = this.gW.data;
+        int outdims = this.W.columns;
+        int j = 0;
+        for (; j + 4 <= outdims; j += 4) {
+            int g0 = j * indims, g1 = g0 + indims, g2 = g1 + indims, g3 = g2 + indims;
+            for (int i = 0; i < n; i++) {
+                double y0 = gY.data[j * n + i], y1 = gY.data[(j + 1) * n + i];
+                double y2 = gY.data[(j + 2) * n + i], y3 = gY.data[(j + 3) * n + i];
+                for (int p = X.rowPtr[i]; p < X.rowPtr[i + 1]; p++) {
+                    int c = X.colIdx[p];
+                    double v = X.values[p];
+                    g[g0 + c] += v * y0;
+                    g[g1 + c] += v * y1;
+                    g[g2 + c] += v * y2;
+                    g[g3 + c] += v * y3;
+                }
+            }
+        }
+        for (; j < outdims; j++) {
+            int gj = j * indims;
+            for (int i = 0; i < n; i++) {
+                double gy = gY.data[j * n + i];
+                for (int p = X.rowPtr[i]; p < X.rowPtr[i + 1]; p++) {
+                    g[gj + X.colIdx[p]] += X.values[p] * gy;
+                }
+            }
+        }
+
+        this.maskGradient();
+
+        // gb += sum_row gY
+        this.addColumnSums(gY, this.gb);
+
+        if (this.noInputGradient) {
+            return null;
+        }
         // gX = gY * W^T
-        return gY.mmul(this.W.transpose());
+        if (gX == null) {
+            gX = new DoubleMatrix(n, indims);
+        }
+        return Backend.get().mmul(gY, false, this.W, true, 0, gX);
+    }
+
+    /**
+     * gW = gW * mask (element-wise), if the layer is pruned.
+     */
+    void maskGradient() {
+        if (this.mask != null) {
+            this.gW.muli(this.mask);
+        }
+    }
+
+    /**
+     * v += sum_row M
+     */
+    void addColumnSums(DoubleMatrix M, DoubleMatrix v) {
+        int n = M.rows;
+        for (int j = 0; j < M.columns; j++) {
+            double s = 0;
+            for (int i = j * n; i < (j + 1) * n; i++) {
+                s += M.data[i];
+            }
+            v.data[j] += s;
+        }
+    }
+
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        if (this.precision != Precision.FLOAT) {
+            throw new IllegalStateException("call setPrecision(Precision.FLOAT) first");
+        }
+        FloatMatrix Y = Backend.get().mmul(X, this.Wf).addiRowVector(this.bf);
+        this.Xf = X.dup();
+        return Y;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        Backend.get().mmul(this.Xf, true, gY, false, 1f, this.gWf);
+        if (this.maskf != null) {
+            this.gWf.muli(this.maskf);
+        }
+        this.gbf.addi(gY.columnSums());
+        if (this.noInputGradient) {
+            return null;
+        }
+        return Backend.get().mmul(gY, false, this.Wf, true, 0f, new FloatMatrix(gY.rows, this.Wf.rows));
     }
 
     @Override
     public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
-        weights.add(this.W);
-        weights.add(this.b);
+        if (this.precision != Precision.FLOAT) {
+            weights.add(this.W);
+            weights.add(this.b);
+        }
         return weights;
     }
 
     @Override
     public List<DoubleMatrix> getAllGradients(List<DoubleMatrix> grads) {
-        grads.add(this.gW);
-        grads.add(this.gb);
+        if (this.precision != Precision.FLOAT) {
+            grads.add(this.gW);
+            grads.add(this.gb);
+        }
+        return grads;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllFloatWeights(List<FloatMatrix> weights) {
+        if (this.precision == Precision.FLOAT) {
+            weights.add(this.Wf);
+            weights.add(this.bf);
+        }
+        return weights;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllFloatGradients(List<FloatMatrix> grads) {
+        if (this.precision == Precision.FLOAT) {
+            grads.add(this.gWf);
+            grads.add(this.gbf);
+        }
         return grads;
     }
 
+    @Override
+    public void release() {
+        this.X = null;
+        this.Xs = null;
+        this.Xf = null;
+    }
+
+    @Override
+    public Layer replicate() {
+        Linear r = new Linear(this.W, this.b);
+        r.gW = DoubleMatrix.zeros(this.W.rows, this.W.columns);
+        r.gb = DoubleMatrix.zeros(this.b.rows, this.b.columns);
+        r.precision = this.precision;
+        r.mask = this.mask;
+        r.maskf = this.maskf;
+        r.noInputGradient = this.noInputGradient;
+        if (this.Wf != null) {
+            r.Wf = this.Wf;
+            r.bf = this.bf;
+            r.gWf = FloatMatrix.zeros(this.Wf.rows, this.Wf.columns);
+            r.gbf = FloatMatrix.zeros(this.bf.rows, this.bf.columns);
+        }
+        return r;
+    }
+
     @Override
     public String toString() {
         return String.format("Linear: %d in, %d out", this.W.rows, this.W.columns);
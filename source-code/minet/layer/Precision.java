@@ -0,0 +1,13 @@
+// File: Precision.java
+// Floating point precision of a network
+package minet.layer;
+
+/**
+ * The floating point precision a layer computes with (see {@link Layer#setPrecision(Precision)}).
+ */
+public enum Precision {
+    /** 64-bit, with {@link org.jblas.DoubleMatrix} */
+    DOUBLE,
+    /** 32-bit, with {@link org.jblas.FloatMatrix} */
+    FLOAT
+}
@@ -0,0 +1,146 @@
+// File: QuantizedLinear.java
+// Int8 linear layer for inference
+package minet.layer;
+
+import minet.kernel.Kernels;
+import org.jblas.DoubleMatrix;
+
+import java.util.List;
+
+/**
+ * An inference-only, int8 version of a trained {@link Linear} layer (Y = XW + b).
+ *
+ * Each column j of W (one output channel) is quantized symmetrically with its own scale,
+ * W[k][j] ~ wScale[j] * Wq[k][j] with Wq in [-127, 127], and the input with a single scale
+ * calibrated beforehand (see {@link minet.quant.Quantizer}), X[i][k] ~ xScale * Xq[i][k].
+ * The products of the int8 values are accumulated in 32-bit integers, so that
+ * Y[i][j] = xScale * wScale[j] * sum_k Xq[i][k] * Wq[k][j] + b[j].
+ *
+ * Both int8 matrices are stored so that the sums run over contiguous bytes: the rows of
+ * Xq one after the other, and the columns of W one after the other.
+ */
+public class QuantizedLinear implements Layer, java.io.Serializable {
+
+    private static final long serialVersionUID = 2370844837845459667L;
+
+    int indims, outdims;
+    byte[] Wq;         // [outdims x indims]: column j of W in Wq[j*indims .. (j+1)*indims)
+    double[] wScale;   // per output channel
+    double xScale;
+    double[] b;
+
+    transient byte[] Xq;  // the quantized input, reused while the minibatch size is unchanged
+
+    QuantizedLinear() { }
+
+    /**
+     * @param linear a trained linear layer (in either precision)
+     * @param xMax the largest absolute value expected in the input (larger values are clipped)
+     */
+    public QuantizedLinear(Linear linear, double xMax) {
+        DoubleMatrix W = linear.getWeights();
+        DoubleMatrix bias = linear.getBias();
+        this.indims = W.rows;
+        this.outdims = W.columns;
+        this.Wq = new byte[this.indims * this.outdims];
+        this.wScale = new double[this.outdims];
+        this.b = bias.data.clone();
+        this.xScale = xMax > 0 ? xMax / 127 : 1;
+
+        // W is column-major, so each output channel is already contiguous
+        for (int j = 0; j < this.outdims; j++) {
+            double max = 0;
+            for (int k = j * this.indims; k < (j + 1) * this.indims; k++) {
+                max = Math.max(max, Math.abs(W.data[k]));
+            }
+            this.wScale[j] = max > 0 ? max / 127 : 1;
+            for (int k = j * this.indims; k < (j + 1) * this.indims; k++) {
+                this.Wq[k] = quantize(W.data[k], this.wScale[j]);
+            }
+        }
+    }
+
+    static byte quantize(double v, double scale) {
+        long q = Math.round(v / scale);
+        return (byte) Math.max(-127, Math.min(127, q));
+    }
+
+    @Override
+    public DoubleMatrix forward(DoubleMatrix X) {
+        return this.infer(X, false);
+    }
+
+    @Override
+    public DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        int n = X.rows;
+        if (this.Xq == null || this.Xq.length != n * this.indims) {
+            this.Xq = new byte[n * this.indims];
+        }
+        // quantize, from column-major X to the rows of Xq
+        for (int k = 0; k < this.indims; k++) {
+            for (int i = 0; i < n; i++) {
+                this.Xq[i * this.indims + k] = quantize(X.data[k * n + i], this.xScale);
+            }
+        }
+
+        // four output channels at a time, so that each row of Xq is read once per four channels
+        Kernels kernels = Kernels.get();
+        DoubleMatrix Y = new DoubleMatrix(n, this.outdims);
+        int[] acc = new int[4];
+        int j = 0;
+        for (; j + 4 <= this.outdims; j += 4) {
+            for (int i = 0; i < n; i++) {
+                kernels.dot4(this.Xq, i * this.indims, this.Wq, j * this.indims, this.indims, this.indims, acc);
+                for (int c = 0; c < 4; c++) {
+                    Y.data[(j + c) * n + i] = acc[c] * this.xScale * this.wScale[j + c] + this.b[j + c];
+                }
+            }
+        }
+        for (; j < this.outdims; j++) {
+            for (int i = 0; i < n; i++) {
+                int dot = kernels.dot(this.Xq, i * this.indims, this.Wq, j * this.indims, this.indims);
+                Y.data[j * n + i] = dot * this.xScale * this.wScale[j] + this.b[j];
+            }
+        }
+        return Y;
+    }
+
+    @Override
+    public DoubleMatrix backward(DoubleMatrix gY) {
+        throw new UnsupportedOperationException(this + " is for inference only");
+    }
+
+    @Override
+    public Layer replicate() {
+        QuantizedLinear r = new QuantizedLinear();
+        r.indims = this.indims;
+        r.outdims = this.outdims;
+        r.Wq = this.Wq;
+        r.wScale = this.wScale;
+        r.xScale = this.xScale;
+        r.b = this.b;
+        return r;
+    }
+
+    @Override
+    public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
+        return weights;
+    }
+
+    @Override
+    public List<DoubleMatrix> getAllGradients(List<DoubleMatrix> grads) {
+        return grads;
+    }
+
+    /**
+     * @return the size of the parameters in bytes (int8 weights, and double scales and biases)
+     */
+    public long getBytes() {
+        return this.Wq.length + 8L * (this.wScale.length + this.b.length + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QuantizedLinear: %d in, %d out, int8", this.indims, this.outdims);
+    }
+}
@@ -2,6 +2,7 @@
 // ReLU layer
 package minet.layer;
 
+import minet.kernel.Kernels;
 import org.jblas.*;
 
 import java.util.List;
@@ -15,38 +16,60 @@ public class ReLU implements Layer {
 	
 	// for backward
     DoubleMatrix Y;
+    FloatMatrix Yf;
+
+    transient Workspace ws;
+    int outSlot, gradSlot;
     
     public ReLU() {}
 
+    @Override
+    public void setWorkspace(Workspace ws) {
+        if (ws != null && ws != this.ws) {
+            this.outSlot = ws.newSlot();
+            this.gradSlot = ws.newSlot();
+        }
+        this.ws = ws;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
         // Y[i] = max(0, X[i])
+        DoubleMatrix Y = this.ws != null ? this.ws.get(this.outSlot, X.rows, X.columns) : new DoubleMatrix(X.rows, X.columns);
+        Kernels.get().reluForward(X.data, Y.data, X.length);
+        this.Y = this.ws != null ? Y : Y.dup();
+        return Y;
+    }
 
-        DoubleMatrix Y = DoubleMatrix.zeros(X.rows, X.columns);
-
-        for (int i = 0; i < X.length; i++) {
-            if (X.get(i) > 0) {
-                Y.put(i, X.get(i));
-            }
-        }
-
-        this.Y = Y.dup();
+    @Override
+    public DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        DoubleMatrix Y = overwrite ? X
+                : this.ws != null ? this.ws.get(this.outSlot, X.rows, X.columns) : new DoubleMatrix(X.rows, X.columns);
+        Kernels.get().reluForward(X.data, Y.data, X.length);
         return Y;
     }
 
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
         // X[i] = {1 if Y > 0, 0 if Y <= 0}
+        DoubleMatrix gX = this.ws != null ? this.ws.get(this.gradSlot, gY.rows, gY.columns) : new DoubleMatrix(gY.rows, gY.columns);
+        Kernels.get().reluBackward(this.Y.data, gY.data, gX.data, gY.length);
+        return gX;
+    }
 
-        DoubleMatrix out = DoubleMatrix.zeros(Y.rows, Y.columns);
-
-        for (int i = 0; i < Y.length; i++) {
-            if (Y.get(i) > 0) {
-                out.put(i, 1);
-            }
-        }
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        FloatMatrix Y = new FloatMatrix(X.rows, X.columns);
+        Kernels.get().reluForward(X.data, Y.data, X.length);
+        this.Yf = Y.dup();
+        return Y;
+    }
 
-        return gY.mul(out);
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        FloatMatrix gX = new FloatMatrix(gY.rows, gY.columns);
+        Kernels.get().reluBackward(this.Yf.data, gY.data, gX.data, gY.length);
+        return gX;
     }
 
     @Override
@@ -59,6 +82,17 @@ public class ReLU implements Layer {
         return gradients;
     }
 
+    @Override
+    public void release() {
+        this.Y = null;
+        this.Yf = null;
+    }
+
+    @Override
+    public Layer replicate() {
+        return new ReLU();
+    }
+
     @Override
     public String toString() {
         return "ReLU";
@@ -3,7 +3,11 @@
 
 package minet.layer;
 
+import minet.loss.Loss;
+import minet.util.CsrMatrix;
+import minet.util.Matrices;
 import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
 
 import java.util.List;
 
@@ -20,13 +24,139 @@ public class Sequential implements Layer, java.io.Serializable {
 	private static final long serialVersionUID = 2172439814486831959L;
 	
 	Layer[] layers;         
+    Precision precision = Precision.DOUBLE;
+    boolean inference;  // see setTraining
+    int segmentSize;    // see setCheckpointing (0: no checkpointing)
+    transient DoubleMatrix[] checkpoints;  // the input of each segment, kept by forward for backward
+    // in single precision, the conversions of the inputs and outputs of forward and backward
+    transient FloatMatrix floatX, floatGY;
+    transient DoubleMatrix doubleY, doubleGX;
 
     public Sequential(Layer[] layers) {
         this.layers = layers;
     }
 
+    /**
+     * @return the layers, in order (not a copy)
+     */
+    public Layer[] getLayers() {
+        return this.layers;
+    }
+
+    /**
+     * Set the precision of all the layers. In {@link Precision#FLOAT}, the double precision
+     * {@link #forward(DoubleMatrix)} and {@link #backward(DoubleMatrix)} convert their input
+     * and output (into matrices reused while the minibatch size is unchanged), and the layers
+     * compute in single precision in between. Training loops avoid the conversions by calling
+     * {@link #forward(FloatMatrix)} and {@link #backward(FloatMatrix)} directly, on the
+     * minibatches of {@link minet.Dataset#getNextFloatMiniBatch(int)} and with the single
+     * precision path of the loss (see {@link Loss#forward(FloatMatrix, FloatMatrix)}).
+     */
+    @Override
+    public void setPrecision(Precision precision) {
+        for (int i = 0; i < layers.length; i++) {
+            layers[i].setPrecision(precision);
+        }
+        this.precision = precision;
+    }
+
+    @Override
+    public void setWorkspace(Workspace ws) {
+        for (int i = 0; i < layers.length; i++) {
+            layers[i].setWorkspace(ws);
+        }
+    }
+
+    /**
+     * Create a workspace for the network and size it for minibatches of the given size,
+     * by running a forward and a backward pass on zeros (which leaves the gradients unchanged).
+     * From then on, training steps on such minibatches allocate no matrices.
+     * @param batchsize the minibatch size
+     * @param indims the number of input dimensions
+     * @return the workspace
+     */
+    public Workspace createWorkspace(int batchsize, int indims) {
+        Workspace ws = new Workspace();
+        this.setWorkspace(ws);
+        DoubleMatrix Y = this.forward(DoubleMatrix.zeros(batchsize, indims));
+        this.backward(DoubleMatrix.zeros(Y.rows, Y.columns));
+        return ws;
+    }
+
+    /**
+     * Compile the network into an execution plan for minibatches of the given size (see
+     * {@link CompiledSequential}), which fuses layers and shares the buffers of the
+     * intermediate matrices. The plan shares the weights and the gradients of the network.
+     * @param batchsize the minibatch size
+     * @param indims the number of input dimensions
+     * @param training true to plan forward and backward, false to plan inference only
+     * @param loss the loss the network is trained with (or null); train the plan with
+     *             {@link CompiledSequential#getLoss()}, which may be a fused version of it
+     * @return the compiled network
+     */
+    public CompiledSequential compile(int batchsize, int indims, boolean training, Loss loss) {
+        return new CompiledSequential(this, batchsize, indims, training, loss);
+    }
+
+    /**
+     * Activation checkpointing: cut the layers into segments of segmentSize layers, and make
+     * forward keep only the input of each segment. All segments but the last run in inference
+     * mode (see {@link Layer#infer(DoubleMatrix, boolean)}), keeping nothing for backward; then
+     * backward runs forward again on each of these segments, from its input, just before going
+     * back through it, and releases what the layers of a segment kept once it is done (see
+     * {@link Layer#release()}).
+     *
+     * With L layers, the matrices kept alive in training are then about L / segmentSize
+     * segment inputs plus the activations of one segment, instead of the activations of all
+     * the layers, for the cost of about one extra forward pass. A segment size around sqrt(L)
+     * keeps the least. This saves memory when the layers allocate their matrices; with a
+     * {@link Workspace}, each layer has its own buffers anyway. Single precision is not
+     * checkpointed.
+     * @param segmentSize the number of layers per segment, or 0 to keep all the activations (the default)
+     */
+    public void setCheckpointing(int segmentSize) {
+        if (segmentSize < 0) {
+            throw new IllegalArgumentException("segmentSize must not be negative: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.checkpoints = null;
+    }
+
+    /**
+     * Switch between training mode (the default) and inference mode, e.g. for evaluation.
+     * In inference mode, {@link #forward(DoubleMatrix)} runs {@link #infer(DoubleMatrix, boolean)}:
+     * no layer keeps its input or output for backward, and the activation layers work in place
+     * in the output of the layer before them.
+     */
+    @Override
+    public void setTraining(boolean training) {
+        for (int i = 0; i < layers.length; i++) {
+            layers[i].setTraining(training);
+        }
+        this.inference = !training;
+        if (!training) {
+            this.checkpoints = null;
+        }
+    }
+
+    /**
+     * @return true in training mode, false in inference mode (see {@link #setTraining(boolean)})
+     */
+    public boolean isTraining() {
+        return !this.inference;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
+        if (this.precision == Precision.FLOAT) {
+            return this.forwardConverted(X);
+        }
+        if (this.inference) {
+            return this.infer(X, false);
+        }
+        if (this.segmentSize > 0 && this.segmentSize < layers.length) {
+            return this.forwardCheckpointed(X);
+        }
     	//System.out.print("\n");
         for (int i = 0; i < layers.length; i++) {
             X = layers[i].forward(X);
@@ -36,14 +166,107 @@ public class Sequential implements Layer, java.io.Serializable {
         return X;
     }
 
+    /**
+     * Forward keeping only the input of each segment, except in the last segment, whose
+     * layers keep what they need for backward as usual.
+     */
+    DoubleMatrix forwardCheckpointed(DoubleMatrix X) {
+        int nSegments = (layers.length + this.segmentSize - 1) / this.segmentSize;
+        if (this.checkpoints == null || this.checkpoints.length != nSegments) {
+            this.checkpoints = new DoubleMatrix[nSegments];
+        }
+        // the input of the network is copied, as Linear does (except in sparse form, which
+        // Linear keeps as it is); the other segment inputs are outputs of infer, which the
+        // next segment does not overwrite
+        if (!(X instanceof CsrMatrix)) {
+            X = X.dup();
+        }
+        for (int s = 0; s < nSegments - 1; s++) {
+            this.checkpoints[s] = X;
+            for (int i = s * this.segmentSize; i < (s + 1) * this.segmentSize; i++) {
+                X = layers[i].infer(X, i > s * this.segmentSize);
+            }
+        }
+        for (int i = (nSegments - 1) * this.segmentSize; i < layers.length; i++) {
+            X = layers[i].forward(X);
+        }
+        return X;
+    }
+
+    /**
+     * Single precision forward on a double precision input.
+     */
+    DoubleMatrix forwardConverted(DoubleMatrix X) {
+        this.floatX = Matrices.toFloat(X, this.floatX);
+        this.doubleY = Matrices.toDouble(this.forward(this.floatX), this.doubleY);
+        return this.doubleY;
+    }
+
+    @Override
+    public DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        if (this.precision == Precision.FLOAT) {
+            // the single precision layers have no separate inference path
+            return this.forwardConverted(X);
+        }
+        for (int i = 0; i < layers.length; i++) {
+            // the input of every layer but the first belongs to the network
+            X = layers[i].infer(X, overwrite || i > 0);
+        }
+        return X;
+    }
+
     @Override
     public DoubleMatrix backward(DoubleMatrix dY) {
+        if (this.precision == Precision.FLOAT) {
+            this.floatGY = Matrices.toFloat(dY, this.floatGY);
+            this.doubleGX = Matrices.toDouble(this.backward(this.floatGY), this.doubleGX);
+            return this.doubleGX;
+        }
+        if (this.segmentSize > 0 && this.segmentSize < layers.length) {
+            return this.backwardCheckpointed(dY);
+        }
         for (int i = layers.length-1; i >= 0; i--) {
             dY = layers[i].backward(dY);
         }
         return dY;
     }
 
+    /**
+     * Backward through the segments from the last one, running forward again on each
+     * segment but the last from its input first.
+     */
+    DoubleMatrix backwardCheckpointed(DoubleMatrix dY) {
+        if (this.checkpoints == null || this.checkpoints[0] == null) {
+            throw new IllegalStateException("no checkpoints to run backward from: forward must run in training mode,"
+                    + " with the current checkpointing, before each backward");
+        }
+        int nSegments = this.checkpoints.length;
+        for (int s = nSegments - 1; s >= 0; s--) {
+            int from = s * this.segmentSize;
+            int to = Math.min(from + this.segmentSize, layers.length);
+            if (s < nSegments - 1) {
+                DoubleMatrix X = this.checkpoints[s];
+                for (int i = from; i < to; i++) {
+                    X = layers[i].forward(X);
+                }
+            }
+            for (int i = to - 1; i >= from; i--) {
+                dY = layers[i].backward(dY);
+                layers[i].release();
+            }
+            this.checkpoints[s] = null;
+        }
+        return dY;
+    }
+
+    @Override
+    public void release() {
+        for (int i = 0; i < layers.length; i++) {
+            layers[i].release();
+        }
+        this.checkpoints = null;
+    }
+
     @Override
     public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
         for (int i = 0; i < layers.length; i++) {
@@ -60,6 +283,51 @@ public class Sequential implements Layer, java.io.Serializable {
         return grads;
     }
 
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        for (int i = 0; i < layers.length; i++) {
+            X = layers[i].forward(X);
+        }
+        return X;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix dY) {
+        for (int i = layers.length-1; i >= 0; i--) {
+            dY = layers[i].backward(dY);
+        }
+        return dY;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllFloatWeights(List<FloatMatrix> weights) {
+        for (int i = 0; i < layers.length; i++) {
+            layers[i].getAllFloatWeights(weights);
+        }
+        return weights;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllFloatGradients(List<FloatMatrix> grads) {
+        for (int i = 0; i < layers.length; i++) {
+            layers[i].getAllFloatGradients(grads);
+        }
+        return grads;
+    }
+
+    @Override
+    public Layer replicate() {
+        Layer[] replicas = new Layer[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            replicas[i] = layers[i].replicate();
+        }
+        Sequential r = new Sequential(replicas);
+        r.precision = this.precision;
+        r.inference = this.inference;
+        r.segmentSize = this.segmentSize;
+        return r;
+    }
+
     @Override
     public String toString() {
         StringBuilder str = new StringBuilder();
@@ -2,6 +2,7 @@
 // Sigmoid layer
 package minet.layer;
 
+import minet.kernel.Kernels;
 import org.jblas.*;
 
 import java.util.List;
@@ -18,21 +19,60 @@ public class Sigmoid implements Layer, java.io.Serializable {
 	
 	// for backward
     DoubleMatrix Y;
+    FloatMatrix Yf;
+
+    transient Workspace ws;
+    int outSlot, gradSlot;
     
     public Sigmoid() {}
 
+    @Override
+    public void setWorkspace(Workspace ws) {
+        if (ws != null && ws != this.ws) {
+            this.outSlot = ws.newSlot();
+            this.gradSlot = ws.newSlot();
+        }
+        this.ws = ws;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
         // Y[i] = 1 / (1 + exp(-X[i]))
-        DoubleMatrix Y = MatrixFunctions.expi(X.mul(-1)).addi(1).rdivi(1);
-        this.Y = Y.dup();
+        DoubleMatrix Y = this.ws != null ? this.ws.get(this.outSlot, X.rows, X.columns) : new DoubleMatrix(X.rows, X.columns);
+        Kernels.get().sigmoidForward(X.data, Y.data, X.length);
+        this.Y = this.ws != null ? Y : Y.dup();
+        return Y;
+    }
+
+    @Override
+    public DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        DoubleMatrix Y = overwrite ? X
+                : this.ws != null ? this.ws.get(this.outSlot, X.rows, X.columns) : new DoubleMatrix(X.rows, X.columns);
+        Kernels.get().sigmoidForward(X.data, Y.data, X.length);
         return Y;
     }
 
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
         // gX = gY . (Y . (1 - Y))
-        return gY.mul(this.Y.mul(this.Y.rsub(1)));
+        DoubleMatrix gX = this.ws != null ? this.ws.get(this.gradSlot, gY.rows, gY.columns) : new DoubleMatrix(gY.rows, gY.columns);
+        Kernels.get().sigmoidBackward(this.Y.data, gY.data, gX.data, gY.length);
+        return gX;
+    }
+
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        FloatMatrix Y = new FloatMatrix(X.rows, X.columns);
+        Kernels.get().sigmoidForward(X.data, Y.data, X.length);
+        this.Yf = Y.dup();
+        return Y;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        FloatMatrix gX = new FloatMatrix(gY.rows, gY.columns);
+        Kernels.get().sigmoidBackward(this.Yf.data, gY.data, gX.data, gY.length);
+        return gX;
     }
 
     @Override
@@ -45,6 +85,17 @@ public class Sigmoid implements Layer, java.io.Serializable {
         return grads;
     }
 
+    @Override
+    public void release() {
+        this.Y = null;
+        this.Yf = null;
+    }
+
+    @Override
+    public Layer replicate() {
+        return new Sigmoid();
+    }
+
     @Override
     public String toString() {
         return "Sigmoid";
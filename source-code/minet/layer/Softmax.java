@@ -19,12 +19,30 @@ public class Softmax implements Layer, java.io.Serializable {
 	
 	// for backward
     DoubleMatrix Y;
+    FloatMatrix Yf;
+
+    transient Workspace ws;
+    int outSlot, gradSlot;
     
     public Softmax() {}
 
+    @Override
+    public void setWorkspace(Workspace ws) {
+        if (ws != null && ws != this.ws) {
+            this.outSlot = ws.newSlot();
+            this.gradSlot = ws.newSlot();
+        }
+        this.ws = ws;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
         // Y[:,j] = exp(Y[:,j]) / sum_k exp(Y[:,k])
+        if (this.ws != null) {
+            this.Y = this.ws.get(this.outSlot, X.rows, X.columns);
+            softmax(X, this.Y);
+            return this.Y;
+        }
         DoubleMatrix maxVal = X.rowMaxs();
         DoubleMatrix Y = MatrixFunctions.expi(X.subColumnVector(maxVal));
         DoubleMatrix norm = Y.rowSums();
@@ -33,12 +51,68 @@ public class Softmax implements Layer, java.io.Serializable {
         return Y;
     }
 
+    @Override
+    public DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        DoubleMatrix Y = overwrite ? X
+                : this.ws != null ? this.ws.get(this.outSlot, X.rows, X.columns) : new DoubleMatrix(X.rows, X.columns);
+        softmax(X, Y);
+        return Y;
+    }
+
+    /**
+     * Row-wise softmax of X into Y, in a single matrix traversal per row (Y may be X).
+     */
+    static void softmax(DoubleMatrix X, DoubleMatrix Y) {
+        int n = X.rows;
+        for (int i = 0; i < n; i++) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int k = i; k < X.length; k += n) {
+                max = Math.max(max, X.data[k]);
+            }
+            double norm = 0;
+            for (int k = i; k < X.length; k += n) {
+                Y.data[k] = Math.exp(X.data[k] - max);
+                norm += Y.data[k];
+            }
+            for (int k = i; k < X.length; k += n) {
+                Y.data[k] /= norm;
+            }
+        }
+    }
+
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
         // gX[:,j] = Y[:,j] * (gY[:,j] - sum_i gY[:,i] Y[:,i])
+        if (this.ws != null) {
+            DoubleMatrix gX = this.ws.get(this.gradSlot, gY.rows, gY.columns);
+            int n = gY.rows;
+            for (int i = 0; i < n; i++) {
+                double s = 0;
+                for (int k = i; k < gY.length; k += n) {
+                    s += gY.data[k] * this.Y.data[k];
+                }
+                for (int k = i; k < gY.length; k += n) {
+                    gX.data[k] = this.Y.data[k] * (gY.data[k] - s);
+                }
+            }
+            return gX;
+        }
         return gY.subColumnVector(this.Y.mul(gY).rowSums()).muli(this.Y);
     }
 
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        FloatMatrix Y = MatrixFunctions.expi(X.subColumnVector(X.rowMaxs()));
+        Y.diviColumnVector(Y.rowSums());
+        this.Yf = Y.dup();
+        return Y;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        return gY.subColumnVector(this.Yf.mul(gY).rowSums()).muli(this.Yf);
+    }
+
     @Override
     public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
         return weights;
@@ -49,6 +123,17 @@ public class Softmax implements Layer, java.io.Serializable {
         return grads;
     }
 
+    @Override
+    public void release() {
+        this.Y = null;
+        this.Yf = null;
+    }
+
+    @Override
+    public Layer replicate() {
+        return new Softmax();
+    }
+
     @Override
     public String toString() {
         return "Softmax";
@@ -0,0 +1,139 @@
+// File: SparseLinear.java
+// Linear layer with sparse weights, for inference
+package minet.layer;
+
+import org.jblas.DoubleMatrix;
+
+import java.util.List;
+
+/**
+ * An inference-only version of a pruned {@link Linear} layer (Y = XW + b), which stores only
+ * the nonzero weights, column by column (compressed sparse column form): the nonzeros of
+ * column j of W are values[colPtr[j] .. colPtr[j+1]) in the rows rowIdx[colPtr[j] .. colPtr[j+1]).
+ *
+ * Column j of Y is b[j] plus the columns of X of these rows, weighted by the nonzeros. Since
+ * X and Y are column-major, each nonzero weight costs one pass over two contiguous columns
+ * of minibatch_size entries, so both the size of the layer and the cost of forward are
+ * proportional to the number of nonzero weights.
+ */
+public class SparseLinear implements Layer, java.io.Serializable {
+
+    private static final long serialVersionUID = -4205630532940115632L;
+
+    int indims, outdims;
+    int[] colPtr;     // [outdims + 1]
+    int[] rowIdx;     // [nnz]
+    double[] values;  // [nnz]
+    double[] b;
+
+    SparseLinear() { }
+
+    /**
+     * @param linear a (pruned) linear layer, in either precision
+     */
+    public SparseLinear(Linear linear) {
+        DoubleMatrix W = linear.getWeights();
+        this.indims = W.rows;
+        this.outdims = W.columns;
+        this.b = linear.getBias().data.clone();
+        this.colPtr = new int[this.outdims + 1];
+        int nnz = 0;
+        for (int k = 0; k < W.length; k++) {
+            if (W.data[k] != 0) {
+                nnz++;
+            }
+        }
+        this.rowIdx = new int[nnz];
+        this.values = new double[nnz];
+        int p = 0;
+        for (int j = 0; j < this.outdims; j++) {
+            for (int k = 0; k < this.indims; k++) {
+                double w = W.data[j * this.indims + k];
+                if (w != 0) {
+                    this.rowIdx[p] = k;
+                    this.values[p] = w;
+                    p++;
+                }
+            }
+            this.colPtr[j + 1] = p;
+        }
+    }
+
+    @Override
+    public DoubleMatrix forward(DoubleMatrix X) {
+        return this.infer(X, false);
+    }
+
+    @Override
+    public DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        int n = X.rows;
+        DoubleMatrix Y = new DoubleMatrix(n, this.outdims);
+        double[] x = X.data;
+        double[] y = Y.data;
+        for (int j = 0; j < this.outdims; j++) {
+            int yj = j * n;
+            for (int i = 0; i < n; i++) {
+                y[yj + i] = this.b[j];
+            }
+            for (int p = this.colPtr[j]; p < this.colPtr[j + 1]; p++) {
+                double w = this.values[p];
+                int xk = this.rowIdx[p] * n;
+                for (int i = 0; i < n; i++) {
+                    y[yj + i] += w * x[xk + i];
+                }
+            }
+        }
+        return Y;
+    }
+
+    @Override
+    public DoubleMatrix backward(DoubleMatrix gY) {
+        throw new UnsupportedOperationException(this + " is for inference only");
+    }
+
+    /**
+     * @return a layer sharing the weights (forward keeps nothing, so the replica is only a
+     * second reference to them)
+     */
+    @Override
+    public Layer replicate() {
+        SparseLinear r = new SparseLinear();
+        r.indims = this.indims;
+        r.outdims = this.outdims;
+        r.colPtr = this.colPtr;
+        r.rowIdx = this.rowIdx;
+        r.values = this.values;
+        r.b = this.b;
+        return r;
+    }
+
+    @Override
+    public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
+        return weights;
+    }
+
+    @Override
+    public List<DoubleMatrix> getAllGradients(List<DoubleMatrix> grads) {
+        return grads;
+    }
+
+    /**
+     * @return the fraction of nonzero weights
+     */
+    public double getDensity() {
+        return this.values.length / ((double) this.indims * this.outdims);
+    }
+
+    /**
+     * @return the size of the parameters in bytes (nonzero weights and their indices, biases)
+     */
+    public long getBytes() {
+        return 12L * this.values.length + 4L * this.colPtr.length + 8L * this.b.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SparseLinear: %d in, %d out, %.1f%% nonzero",
+                this.indims, this.outdims, 100 * this.getDensity());
+    }
+}
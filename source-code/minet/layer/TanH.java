@@ -2,6 +2,7 @@
 // TanH layer
 package minet.layer;
 
+import minet.kernel.Kernels;
 import org.jblas.*;
 
 import java.util.List;
@@ -15,22 +16,60 @@ public class TanH implements Layer {
 	
 	// for backward
     DoubleMatrix Y;
+    FloatMatrix Yf;
+
+    transient Workspace ws;
+    int outSlot, gradSlot;
     
     public TanH() {}
 
+    @Override
+    public void setWorkspace(Workspace ws) {
+        if (ws != null && ws != this.ws) {
+            this.outSlot = ws.newSlot();
+            this.gradSlot = ws.newSlot();
+        }
+        this.ws = ws;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
         // Y[i] = (exp(X[i]) - exp(-X[i])) / (exp(X[i]) + exp(-X[i]))
-        DoubleMatrix Y = MatrixFunctions.tanh(X);
+        DoubleMatrix Y = this.ws != null ? this.ws.get(this.outSlot, X.rows, X.columns) : new DoubleMatrix(X.rows, X.columns);
+        Kernels.get().tanhForward(X.data, Y.data, X.length);
+        this.Y = this.ws != null ? Y : Y.dup();
+        return Y;
+    }
 
-        this.Y = Y.dup();
+    @Override
+    public DoubleMatrix infer(DoubleMatrix X, boolean overwrite) {
+        DoubleMatrix Y = overwrite ? X
+                : this.ws != null ? this.ws.get(this.outSlot, X.rows, X.columns) : new DoubleMatrix(X.rows, X.columns);
+        Kernels.get().tanhForward(X.data, Y.data, X.length);
         return Y;
     }
 
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
         // X[i] = 1 - tanh²(Y[i])
-        return (gY.mul((this.Y.mul(this.Y)).rsub(1))); 
+        DoubleMatrix gX = this.ws != null ? this.ws.get(this.gradSlot, gY.rows, gY.columns) : new DoubleMatrix(gY.rows, gY.columns);
+        Kernels.get().tanhBackward(this.Y.data, gY.data, gX.data, gY.length);
+        return gX;
+    }
+
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        FloatMatrix Y = new FloatMatrix(X.rows, X.columns);
+        Kernels.get().tanhForward(X.data, Y.data, X.length);
+        this.Yf = Y.dup();
+        return Y;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        FloatMatrix gX = new FloatMatrix(gY.rows, gY.columns);
+        Kernels.get().tanhBackward(this.Yf.data, gY.data, gX.data, gY.length);
+        return gX;
     }
 
     @Override
@@ -43,6 +82,17 @@ public class TanH implements Layer {
         return gradients;
     }
 
+    @Override
+    public void release() {
+        this.Y = null;
+        this.Yf = null;
+    }
+
+    @Override
+    public Layer replicate() {
+        return new TanH();
+    }
+
     @Override
     public String toString() {
         return "TanH";
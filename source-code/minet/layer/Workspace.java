@@ -0,0 +1,77 @@
+// File: Workspace.java
+// Reusable buffers for the layers of a network
+package minet.layer;
+
+import org.jblas.DoubleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An arena of matrices reused by the layers of a network from one minibatch to the next,
+ * so that a training step does not allocate (see {@link Sequential#createWorkspace(int, int)}).
+ *
+ * Each layer reserves slots (e.g. one for its output and one for the gradient of its input)
+ * and asks for a matrix of a given shape in a slot at each call. A slot keeps one matrix per
+ * shape it has been asked for, e.g. one for full minibatches and one for the last, smaller
+ * minibatch of an epoch.
+ *
+ * A matrix taken from a slot is overwritten by the next call of the layer, so the output
+ * of a network using a workspace is only valid until its next forward pass.
+ */
+public class Workspace {
+
+    List<List<DoubleMatrix>> slots = new ArrayList<List<DoubleMatrix>>();
+    int nAllocations;
+    long nBytes;
+
+    public Workspace() { }
+
+    /**
+     * Reserve a new slot. A layer reserves its slots once per workspace it is given.
+     * @return the index of the slot
+     */
+    public int newSlot() {
+        this.slots.add(new ArrayList<DoubleMatrix>(2));
+        return this.slots.size() - 1;
+    }
+
+    /**
+     * Get the [rows x columns] matrix of a slot, allocating it the first time this shape is
+     * asked for. Its content is whatever the previous user of the matrix left in it.
+     */
+    public DoubleMatrix get(int slot, int rows, int columns) {
+        List<DoubleMatrix> buffers = this.slots.get(slot);
+        for (int i = 0; i < buffers.size(); i++) {
+            DoubleMatrix M = buffers.get(i);
+            if (M.rows == rows && M.columns == columns) {
+                return M;
+            }
+        }
+        DoubleMatrix M = new DoubleMatrix(rows, columns);
+        buffers.add(M);
+        this.nAllocations++;
+        this.nBytes += (long) M.length * Double.BYTES;
+        return M;
+    }
+
+    /**
+     * @return the number of matrices allocated so far
+     */
+    public int getAllocations() {
+        return this.nAllocations;
+    }
+
+    /**
+     * @return the total size of the matrices allocated so far, in bytes
+     */
+    public long getBytes() {
+        return this.nBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Workspace: %d slots, %d matrices, %.1f MB",
+                this.slots.size(), this.nAllocations, this.nBytes / 1e6);
+    }
+}
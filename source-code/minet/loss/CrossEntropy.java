@@ -3,6 +3,7 @@
 package minet.loss;
 
 import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
 
 /**
  * A class for computing cross entropy loss
@@ -11,6 +12,8 @@ import org.jblas.DoubleMatrix;
 public class CrossEntropy implements Loss {
     DoubleMatrix Yhat;
     int[] labels;
+    DoubleMatrix dY;  // reused by backward while the minibatch size is unchanged
+    FloatMatrix Yhatf, dYf;  // single precision versions of the above
 
     public CrossEntropy() { }
 
@@ -22,8 +25,14 @@ public class CrossEntropy implements Loss {
      */
     @Override
     public double forward(DoubleMatrix Y, DoubleMatrix Yhat) {
-        this.Yhat = Yhat.dup();
-        this.labels = new int[Y.length];
+        if (this.Yhat != null && this.Yhat.sameSize(Yhat)) {
+            this.Yhat.copy(Yhat);
+        } else {
+            this.Yhat = Yhat.dup();
+        }
+        if (this.labels == null || this.labels.length != Y.length) {
+            this.labels = new int[Y.length];
+        }
         for (int i = 0; i < Y.length; i++) {
             this.labels[i] = (int) Y.data[i];
         }
@@ -37,11 +46,52 @@ public class CrossEntropy implements Loss {
 
     @Override
     public DoubleMatrix backward() {
-        DoubleMatrix dY = DoubleMatrix.zeros(this.Yhat.rows, this.Yhat.columns);
+        if (this.dY == null || !this.dY.sameSize(this.Yhat)) {
+            this.dY = new DoubleMatrix(this.Yhat.rows, this.Yhat.columns);
+        }
+        this.dY.fill(0);
+        for (int i = 0; i < this.labels.length; i++) {
+            this.dY.put(i, this.labels[i], -1 / (this.Yhat.get(i, this.labels[i]) + 1e-7));
+        }
+        return this.dY.divi(this.dY.rows);
+    }
+
+    @Override
+    public double forward(FloatMatrix Y, FloatMatrix Yhat) {
+        if (this.Yhatf != null && this.Yhatf.sameSize(Yhat)) {
+            this.Yhatf.copy(Yhat);
+        } else {
+            this.Yhatf = Yhat.dup();
+        }
+        if (this.labels == null || this.labels.length != Y.length) {
+            this.labels = new int[Y.length];
+        }
+        for (int i = 0; i < Y.length; i++) {
+            this.labels[i] = (int) Y.data[i];
+        }
+
+        double lossVal = 0;
+        for (int i = 0; i < labels.length; i++) {
+            lossVal -= Math.log(Yhat.get(i, labels[i]) + 1e-7);
+        }
+        return lossVal / (double)labels.length;
+    }
+
+    @Override
+    public FloatMatrix floatBackward() {
+        if (this.dYf == null || !this.dYf.sameSize(this.Yhatf)) {
+            this.dYf = new FloatMatrix(this.Yhatf.rows, this.Yhatf.columns);
+        }
+        this.dYf.fill(0);
         for (int i = 0; i < this.labels.length; i++) {
-            dY.put(i, this.labels[i], -1 / (this.Yhat.get(i, this.labels[i]) + 1e-7));
+            this.dYf.put(i, this.labels[i], (float) (-1 / (this.Yhatf.get(i, this.labels[i]) + 1e-7)));
         }
-        return dY.divi(dY.rows);
+        return this.dYf.divi(this.dYf.rows);
+    }
+
+    @Override
+    public Loss replicate() {
+        return new CrossEntropy();
     }
 
     @Override
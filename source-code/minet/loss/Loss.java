@@ -3,6 +3,7 @@
 
 package minet.loss;
 
+import minet.util.Matrices;
 import org.jblas.*;
 
 /**
@@ -24,4 +25,28 @@ public interface Loss {
      * @return a minibatch_size-row matrix
      */
     public DoubleMatrix backward();
+
+    /**
+     * Single precision version of {@link #forward(DoubleMatrix, DoubleMatrix)}, e.g. for a
+     * network in {@link minet.layer.Precision#FLOAT}. By default, the matrices are converted
+     * to double precision.
+     */
+    public default double forward(FloatMatrix Y, FloatMatrix Yhat) {
+        return this.forward(Matrices.toDouble(Y), Matrices.toDouble(Yhat));
+    }
+
+    /**
+     * Single precision version of {@link #backward()}, after {@link #forward(FloatMatrix, FloatMatrix)}.
+     * By default, the gradient is converted to single precision.
+     * @return a minibatch_size-row matrix
+     */
+    public default FloatMatrix floatBackward() {
+        return this.backward().toFloat();
+    }
+
+    /**
+     * Create a new loss of the same kind, with its own state (e.g. for data-parallel training).
+     * @return a new loss
+     */
+    public Loss replicate();
 }
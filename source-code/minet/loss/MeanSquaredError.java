@@ -3,6 +3,7 @@
 package minet.loss;
 
 import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
 import org.jblas.MatrixFunctions;
 
 
@@ -13,6 +14,7 @@ import org.jblas.MatrixFunctions;
 public class MeanSquaredError implements Loss {
     DoubleMatrix Y;
     DoubleMatrix Yhat;
+    FloatMatrix Yf, Yhatf;  // single precision versions of the above
 
     public MeanSquaredError() { }
 
@@ -42,6 +44,36 @@ public class MeanSquaredError implements Loss {
         return (this.Y.sub(this.Yhat)).muli(2. / (double) this.Y.rows).muli(-1);
     }
 
+    @Override
+    public double forward(FloatMatrix Y, FloatMatrix Yhat) {
+        if ((Y.columns==1) && Yhat.columns>1) {
+            this.Yf = FloatMatrix.zeros(Yhat.rows, Yhat.columns);
+            for (int i = 0; i < Y.rows; i++) {
+                this.Yf.put(i, (int)Y.get(i,0), 1);
+            }
+        } else {
+            this.Yf = Y.dup();
+        }
+        this.Yhatf = Yhat.dup();
+        // summed in double precision
+        double lossVal = 0;
+        for (int i = 0; i < this.Yf.length; i++) {
+            double d = this.Yf.data[i] - Yhat.data[i];
+            lossVal += d * d;
+        }
+        return lossVal / this.Yf.rows;
+    }
+
+    @Override
+    public FloatMatrix floatBackward() {
+        return (this.Yf.sub(this.Yhatf)).muli(2f / (float) this.Yf.rows).muli(-1);
+    }
+
+    @Override
+    public Loss replicate() {
+        return new MeanSquaredError();
+    }
+
     @Override
     public String toString() {
         return "MeanSquareErrorLoss";
@@ -0,0 +1,148 @@
+// File: SoftmaxCrossEntropy.java
+// SoftmaxCrossEntropy class
+package minet.loss;
+
+import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
+
+import java.util.Arrays;
+
+/**
+ * A class for computing the cross entropy loss of a softmax over logits, i.e. the same
+ * loss as a {@link minet.layer.Softmax} layer followed by {@link CrossEntropy}, but fused:
+ * the network ends with the layer producing the logits (no Softmax layer), the loss uses a
+ * numerically stable log-sum-exp, and the gradient (softmax(Yhat) - onehot(Y)) / n is
+ * computed in the same pass as the loss.
+ */
+public class SoftmaxCrossEntropy implements Loss {
+    DoubleMatrix dY;   // gradient w.r.t. the logits, reused while the minibatch size is unchanged
+    double[] max;      // per row
+    double[] norm;     // per row
+    FloatMatrix dYf;   // single precision version of dY
+
+    public SoftmaxCrossEntropy() { }
+
+    /**
+     * Compute a loss value given groud-truth Y and logits Yhat
+     * @param Y a [minibatch_size x 1] matrix, each row is the ground-truth label of an instance
+     * @param Yhat a [minibatch_size x d] matrix, each row holds the logits of an instance
+     * @return a double
+     */
+    @Override
+    public double forward(DoubleMatrix Y, DoubleMatrix Yhat) {
+        int n = Yhat.rows;
+        if (this.dY == null || !this.dY.sameSize(Yhat)) {
+            this.dY = new DoubleMatrix(n, Yhat.columns);
+        }
+        if (this.max == null || this.max.length != n) {
+            this.max = new double[n];
+            this.norm = new double[n];
+        }
+        double[] z = Yhat.data;
+        double[] g = this.dY.data;
+
+        // column by column, since the matrices are column-major
+        System.arraycopy(z, 0, this.max, 0, n);
+        for (int k = n; k < Yhat.length; k += n) {
+            for (int i = 0; i < n; i++) {
+                this.max[i] = Math.max(this.max[i], z[k + i]);
+            }
+        }
+        Arrays.fill(this.norm, 0);
+        for (int k = 0; k < Yhat.length; k += n) {
+            for (int i = 0; i < n; i++) {
+                g[k + i] = Math.exp(z[k + i] - this.max[i]);
+                this.norm[i] += g[k + i];
+            }
+        }
+
+        // loss_i = log sum_j exp(z_ij) - z_i,label = log norm_i + max_i - z_i,label
+        // dY_ij = (exp(z_ij - max_i) / norm_i - [j == label]) / n
+        double lossVal = 0;
+        for (int i = 0; i < n; i++) {
+            int label = (int) Y.data[i];
+            lossVal += Math.log(this.norm[i]) + this.max[i] - z[label * n + i];
+            this.norm[i] = 1 / (this.norm[i] * n);
+        }
+        for (int k = 0; k < Yhat.length; k += n) {
+            for (int i = 0; i < n; i++) {
+                g[k + i] *= this.norm[i];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            g[(int) Y.data[i] * n + i] -= 1. / n;
+        }
+        return lossVal / n;
+    }
+
+    @Override
+    public DoubleMatrix backward() {
+        return this.dY;
+    }
+
+    /**
+     * Single precision version of {@link #forward(DoubleMatrix, DoubleMatrix)}; the
+     * exponentials and the normalisers are computed in double precision.
+     */
+    @Override
+    public double forward(FloatMatrix Y, FloatMatrix Yhat) {
+        int n = Yhat.rows;
+        if (this.dYf == null || !this.dYf.sameSize(Yhat)) {
+            this.dYf = new FloatMatrix(n, Yhat.columns);
+        }
+        if (this.max == null || this.max.length != n) {
+            this.max = new double[n];
+            this.norm = new double[n];
+        }
+        float[] z = Yhat.data;
+        float[] g = this.dYf.data;
+
+        for (int i = 0; i < n; i++) {
+            this.max[i] = z[i];
+        }
+        for (int k = n; k < Yhat.length; k += n) {
+            for (int i = 0; i < n; i++) {
+                this.max[i] = Math.max(this.max[i], z[k + i]);
+            }
+        }
+        Arrays.fill(this.norm, 0);
+        for (int k = 0; k < Yhat.length; k += n) {
+            for (int i = 0; i < n; i++) {
+                double e = Math.exp(z[k + i] - this.max[i]);
+                g[k + i] = (float) e;
+                this.norm[i] += e;
+            }
+        }
+
+        double lossVal = 0;
+        for (int i = 0; i < n; i++) {
+            int label = (int) Y.data[i];
+            lossVal += Math.log(this.norm[i]) + this.max[i] - z[label * n + i];
+            this.norm[i] = 1 / (this.norm[i] * n);
+        }
+        for (int k = 0; k < Yhat.length; k += n) {
+            for (int i = 0; i < n; i++) {
+                g[k + i] = (float) (g[k + i] * this.norm[i]);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            g[(int) Y.data[i] * n + i] -= 1f / n;
+        }
+        return lossVal / n;
+    }
+
+    @Override
+    public FloatMatrix floatBackward() {
+        return this.dYf;
+    }
+
+    @Override
+    public Loss replicate() {
+        return new SoftmaxCrossEntropy();
+    }
+
+    @Override
+    public String toString() {
+        return "SoftmaxCrossEntropyLoss";
+    }
+}
@@ -0,0 +1,133 @@
+// File: Adam.java
+// Adam optimizer
+package minet.optim;
+
+import minet.layer.Layer;
+
+/**
+ * Adam (Kingma and Ba, 2015, "Adam: A Method for Stochastic Optimization"), optionally with
+ * decoupled weight decay (see {@link AdamW}). Two moments are kept for each parameter:
+ * <pre>
+ * w = w - lr * weightDecay * w
+ * m = beta1 * m + (1 - beta1) * g
+ * v = beta2 * v + (1 - beta2) * g^2
+ * w = w - lr * (m / (1 - beta1^t)) / (sqrt(v / (1 - beta2^t)) + eps)
+ * </pre>
+ * where t is the number of updates so far. The moments are kept in two flat arrays, and
+ * each update is a single pass over the parameters, the moments and the gradients (see
+ * {@link Parameters}).
+ */
+public class Adam implements Optimizer, Parameters.Pass {
+    Parameters params;
+    double[] m, v;  // first and second moments, by flat index of the parameters
+    double lr, beta1, beta2, eps, weightDecay;
+    long t;         // number of updates
+
+    // the current update
+    boolean zero;
+    double stepSize, vScale;
+
+    /**
+     * Adam with beta1 = 0.9, beta2 = 0.999, eps = 1e-8 and no weight decay. The precision of
+     * the network must be set (see {@link Layer#setPrecision}) before the optimizer is created.
+     * @param learningRate e.g. 1e-3
+     */
+    public Adam(Layer net, double learningRate) {
+        this(net, learningRate, 0.9, 0.999, 1e-8, 0);
+    }
+
+    /**
+     * @param learningRate e.g. 1e-3
+     * @param beta1 the decay of the first moment, e.g. 0.9
+     * @param beta2 the decay of the second moment, e.g. 0.999
+     * @param eps added to the square root of the second moment, e.g. 1e-8
+     * @param weightDecay the decoupled weight decay, e.g. 1e-2 (0 for none)
+     */
+    public Adam(Layer net, double learningRate, double beta1, double beta2, double eps, double weightDecay) {
+        this.params = new Parameters(net);
+        int size = Math.toIntExact(this.params.getSize());
+        this.m = new double[size];
+        this.v = new double[size];
+        this.lr = learningRate;
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.eps = eps;
+        this.weightDecay = weightDecay;
+    }
+
+    /**
+     * Set learning rate.
+     * @param lr a double
+     */
+    @Override
+    public void setLearningRate(double lr) {
+        this.lr = lr;
+    }
+
+    @Override
+    public void resetGradients() {
+        this.params.zeroGradients();
+    }
+
+    @Override
+    public void updateWeights() {
+        this.update(false);
+    }
+
+    @Override
+    public void updateWeightsAndResetGradients() {
+        this.update(true);
+    }
+
+    void update(boolean zero) {
+        this.t++;
+        this.zero = zero;
+        // the bias corrections, folded into the step size and the scale of sqrt(v)
+        this.stepSize = this.lr / (1 - Math.pow(this.beta1, this.t));
+        this.vScale = 1 / Math.sqrt(1 - Math.pow(this.beta2, this.t));
+        this.params.run(this);
+    }
+
+    @Override
+    public void apply(double[] w, double[] g, int start, int end, int flat) {
+        double[] m = this.m, v = this.v;
+        double b1 = this.beta1, b2 = this.beta2, eps = this.eps;
+        double decay = 1 - this.lr * this.weightDecay, stepSize = this.stepSize, vScale = this.vScale;
+        boolean zero = this.zero;
+        for (int i = start, k = flat; i < end; i++, k++) {
+            double gi = g[i];
+            double mk = b1 * m[k] + (1 - b1) * gi;
+            double vk = b2 * v[k] + (1 - b2) * gi * gi;
+            m[k] = mk;
+            v[k] = vk;
+            w[i] = decay * w[i] - stepSize * mk / (Math.sqrt(vk) * vScale + eps);
+            if (zero) {
+                g[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public void apply(float[] w, float[] g, int start, int end, int flat) {
+        double[] m = this.m, v = this.v;
+        double b1 = this.beta1, b2 = this.beta2, eps = this.eps;
+        double decay = 1 - this.lr * this.weightDecay, stepSize = this.stepSize, vScale = this.vScale;
+        boolean zero = this.zero;
+        for (int i = start, k = flat; i < end; i++, k++) {
+            double gi = g[i];
+            double mk = b1 * m[k] + (1 - b1) * gi;
+            double vk = b2 * v[k] + (1 - b2) * gi * gi;
+            m[k] = mk;
+            v[k] = vk;
+            w[i] = (float) (decay * w[i] - stepSize * mk / (Math.sqrt(vk) * vScale + eps));
+            if (zero) {
+                g[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Adam(lr=%s, weight decay=%s)", this.lr, this.weightDecay);
+    }
+}
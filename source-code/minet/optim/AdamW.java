@@ -0,0 +1,28 @@
+// File: AdamW.java
+// Adam with decoupled weight decay
+package minet.optim;
+
+import minet.layer.Layer;
+
+/**
+ * AdamW (Loshchilov and Hutter, 2019, "Decoupled Weight Decay Regularization"): {@link Adam}
+ * where the weights decay by lr * weightDecay * w at each update, separately from the
+ * gradient, instead of through an L2 term in the loss, which Adam's scaling would weaken for
+ * the weights with large gradients.
+ */
+public class AdamW extends Adam {
+
+    /**
+     * AdamW with beta1 = 0.9, beta2 = 0.999 and eps = 1e-8.
+     * @param learningRate e.g. 1e-3
+     * @param weightDecay e.g. 1e-2
+     */
+    public AdamW(Layer net, double learningRate, double weightDecay) {
+        super(net, learningRate, 0.9, 0.999, 1e-8, weightDecay);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdamW(lr=%s, weight decay=%s)", this.lr, this.weightDecay);
+    }
+}
@@ -0,0 +1,162 @@
+// File: LAMB.java
+// Layer-wise adaptive moments for large batches
+package minet.optim;
+
+import minet.layer.Layer;
+
+import java.util.Arrays;
+
+/**
+ * LAMB (You et al., 2020, "Large Batch Optimization for Deep Learning: Training BERT in 76
+ * Minutes"): {@link Adam} whose update of each weight matrix is scaled by a trust ratio, as in
+ * {@link LARS}, so that it is proportional to the size of the weights:
+ * <pre>
+ * m = beta1 * m + (1 - beta1) * g
+ * v = beta2 * v + (1 - beta2) * g^2
+ * r = (m / (1 - beta1^t)) / (sqrt(v / (1 - beta2^t)) + eps) + weightDecay * w
+ * trust = ||w|| / ||r||    (per matrix)
+ * w = w - lr * trust * r
+ * </pre>
+ * Bias vectors (matrices with a single row or column) are updated with trust 1 and no weight
+ * decay. Each update is two passes over the parameters (see {@link Parameters}): one for the
+ * moments and the norms of each matrix, one for the update itself.
+ */
+public class LAMB extends Adam {
+
+    int stripes;      // of the passes over the parameters
+    double[] w2, r2;  // squared norms of the weights and of the Adam steps, per matrix and stripe
+    double[] trust;   // per matrix
+    boolean norms;    // whether the current pass updates the moments and computes the norms
+
+    /**
+     * LAMB with beta1 = 0.9, beta2 = 0.999, eps = 1e-6 and no weight decay. The precision of
+     * the network must be set (see {@link Layer#setPrecision}) before the optimizer is created.
+     * @param learningRate e.g. 1e-2
+     */
+    public LAMB(Layer net, double learningRate) {
+        this(net, learningRate, 0.9, 0.999, 1e-6, 0);
+    }
+
+    /**
+     * @param learningRate e.g. 1e-2
+     * @param beta1 the decay of the first moment, e.g. 0.9
+     * @param beta2 the decay of the second moment, e.g. 0.999
+     * @param eps added to the square root of the second moment, e.g. 1e-6
+     * @param weightDecay e.g. 1e-2 (0 for none)
+     */
+    public LAMB(Layer net, double learningRate, double beta1, double beta2, double eps, double weightDecay) {
+        super(net, learningRate, beta1, beta2, eps, weightDecay);
+        this.stripes = this.params.getStripeCount();
+        this.w2 = new double[this.params.getCount() * this.stripes];
+        this.r2 = new double[this.params.getCount() * this.stripes];
+        this.trust = new double[this.params.getCount()];
+    }
+
+    @Override
+    void update(boolean zero) {
+        this.t++;
+        this.zero = zero;
+        // the bias corrections (the step size is multiplied by lr * trust in the second pass)
+        this.stepSize = 1 / (1 - Math.pow(this.beta1, this.t));
+        this.vScale = 1 / Math.sqrt(1 - Math.pow(this.beta2, this.t));
+
+        Arrays.fill(this.w2, 0);
+        Arrays.fill(this.r2, 0);
+        this.norms = true;
+        this.params.run(this);
+
+        for (int p = 0; p < this.trust.length; p++) {
+            // the parts of the matrix, in stripe order
+            double w2 = 0, r2 = 0;
+            for (int s = p * this.stripes; s < (p + 1) * this.stripes; s++) {
+                w2 += this.w2[s];
+                r2 += this.r2[s];
+            }
+            double wNorm = Math.sqrt(w2);
+            double rNorm = Math.sqrt(r2);
+            boolean adapt = !this.params.isVector(p) && wNorm > 0 && rNorm > 0;
+            this.trust[p] = adapt ? wNorm / rNorm : 1;
+        }
+        this.norms = false;
+        this.params.run(this);
+    }
+
+    /**
+     * Keep the sums of squares of the part of matrix p in the stripe of the given flat index
+     * (each part has its own entry, so the stripes need no synchronisation).
+     */
+    void setNorms(int p, int flat, double w2, double r2) {
+        int s = p * this.stripes + this.params.stripeOf(flat);
+        this.w2[s] = w2;
+        this.r2[s] = r2;
+    }
+
+    @Override
+    public void apply(double[] w, double[] g, int start, int end, int flat) {
+        int p = this.params.matrixOf(flat);
+        double[] m = this.m, v = this.v;
+        double eps = this.eps, stepSize = this.stepSize, vScale = this.vScale;
+        double decay = this.params.isVector(p) ? 0 : this.weightDecay;
+        if (this.norms) {
+            double b1 = this.beta1, b2 = this.beta2;
+            double sw = 0, sr = 0;
+            for (int i = start, k = flat; i < end; i++, k++) {
+                double gi = g[i];
+                double mk = b1 * m[k] + (1 - b1) * gi;
+                double vk = b2 * v[k] + (1 - b2) * gi * gi;
+                m[k] = mk;
+                v[k] = vk;
+                double r = stepSize * mk / (Math.sqrt(vk) * vScale + eps) + decay * w[i];
+                sw += w[i] * w[i];
+                sr += r * r;
+            }
+            this.setNorms(p, flat, sw, sr);
+            return;
+        }
+        double rate = this.lr * this.trust[p];
+        boolean zero = this.zero;
+        for (int i = start, k = flat; i < end; i++, k++) {
+            w[i] -= rate * (stepSize * m[k] / (Math.sqrt(v[k]) * vScale + eps) + decay * w[i]);
+            if (zero) {
+                g[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public void apply(float[] w, float[] g, int start, int end, int flat) {
+        int p = this.params.matrixOf(flat);
+        double[] m = this.m, v = this.v;
+        double eps = this.eps, stepSize = this.stepSize, vScale = this.vScale;
+        double decay = this.params.isVector(p) ? 0 : this.weightDecay;
+        if (this.norms) {
+            double b1 = this.beta1, b2 = this.beta2;
+            double sw = 0, sr = 0;
+            for (int i = start, k = flat; i < end; i++, k++) {
+                double gi = g[i];
+                double mk = b1 * m[k] + (1 - b1) * gi;
+                double vk = b2 * v[k] + (1 - b2) * gi * gi;
+                m[k] = mk;
+                v[k] = vk;
+                double r = stepSize * mk / (Math.sqrt(vk) * vScale + eps) + decay * w[i];
+                sw += w[i] * w[i];
+                sr += r * r;
+            }
+            this.setNorms(p, flat, sw, sr);
+            return;
+        }
+        double rate = this.lr * this.trust[p];
+        boolean zero = this.zero;
+        for (int i = start, k = flat; i < end; i++, k++) {
+            w[i] -= (float) (rate * (stepSize * m[k] / (Math.sqrt(v[k]) * vScale + eps) + decay * w[i]));
+            if (zero) {
+                g[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LAMB(lr=%s, weight decay=%s)", this.lr, this.weightDecay);
+    }
+}
@@ -0,0 +1,170 @@
+// File: LARS.java
+// Layer-wise adaptive rate scaling
+package minet.optim;
+
+import minet.layer.Layer;
+
+import java.util.Arrays;
+
+/**
+ * LARS (You et al., 2017, "Large Batch Training of Convolutional Networks"): SGD with momentum
+ * where the learning rate of each weight matrix is scaled by a trust ratio, so that the size
+ * of its update is proportional to the size of its weights, whatever the size of its gradient.
+ * This keeps training stable with large minibatches and the large learning rates they need:
+ * <pre>
+ * trust = eta * ||w|| / (||g|| + weightDecay * ||w||)    (per matrix)
+ * v = mu * v + lr * trust * (g + weightDecay * w)
+ * w = w - v
+ * </pre>
+ * Bias vectors (matrices with a single row or column) are updated with trust 1 and no weight
+ * decay. Each update is two passes over the parameters (see {@link Parameters}): one for the
+ * norms of each matrix, one for the update itself.
+ */
+public class LARS implements Optimizer, Parameters.Pass {
+    Parameters params;
+    double[] v;  // velocity, by flat index of the parameters
+    double lr, mu, weightDecay, eta;
+
+    // the current update
+    boolean norms;     // whether the current pass computes the norms
+    boolean zero;
+    int stripes;       // of the passes over the parameters
+    double[] w2, g2;   // squared norms of the weights and of the gradients, per matrix and stripe
+    double[] trust;    // per matrix
+
+    /**
+     * LARS with momentum 0.9, no weight decay and eta = 0.001. The precision of the network must
+     * be set (see {@link Layer#setPrecision}) before the optimizer is created.
+     */
+    public LARS(Layer net, double learningRate) {
+        this(net, learningRate, 0.9, 0, 0.001);
+    }
+
+    /**
+     * @param mu the momentum, e.g. 0.9
+     * @param weightDecay e.g. 5e-4 (0 for none)
+     * @param eta the trust coefficient, e.g. 0.001
+     */
+    public LARS(Layer net, double learningRate, double mu, double weightDecay, double eta) {
+        this.params = new Parameters(net);
+        this.v = new double[Math.toIntExact(this.params.getSize())];
+        this.lr = learningRate;
+        this.mu = mu;
+        this.weightDecay = weightDecay;
+        this.eta = eta;
+        this.stripes = this.params.getStripeCount();
+        this.w2 = new double[this.params.getCount() * this.stripes];
+        this.g2 = new double[this.params.getCount() * this.stripes];
+        this.trust = new double[this.params.getCount()];
+    }
+
+    @Override
+    public void setLearningRate(double lr) {
+        this.lr = lr;
+    }
+
+    @Override
+    public void resetGradients() {
+        this.params.zeroGradients();
+    }
+
+    @Override
+    public void updateWeights() {
+        this.update(false);
+    }
+
+    @Override
+    public void updateWeightsAndResetGradients() {
+        this.update(true);
+    }
+
+    void update(boolean zero) {
+        Arrays.fill(this.w2, 0);
+        Arrays.fill(this.g2, 0);
+        this.norms = true;
+        this.params.run(this);
+
+        for (int p = 0; p < this.trust.length; p++) {
+            // the parts of the matrix, in stripe order
+            double w2 = 0, g2 = 0;
+            for (int s = p * this.stripes; s < (p + 1) * this.stripes; s++) {
+                w2 += this.w2[s];
+                g2 += this.g2[s];
+            }
+            double wNorm = Math.sqrt(w2);
+            double gNorm = Math.sqrt(g2);
+            boolean adapt = !this.params.isVector(p) && wNorm > 0 && gNorm > 0;
+            this.trust[p] = adapt ? this.eta * wNorm / (gNorm + this.weightDecay * wNorm) : 1;
+        }
+        this.norms = false;
+        this.zero = zero;
+        this.params.run(this);
+    }
+
+    /**
+     * Keep the sums of squares of the part of matrix p in the stripe of the given flat index
+     * (each part has its own entry, so the stripes need no synchronisation).
+     */
+    void setNorms(int p, int flat, double w2, double g2) {
+        int s = p * this.stripes + this.params.stripeOf(flat);
+        this.w2[s] = w2;
+        this.g2[s] = g2;
+    }
+
+    @Override
+    public void apply(double[] w, double[] g, int start, int end, int flat) {
+        int p = this.params.matrixOf(flat);
+        if (this.norms) {
+            double sw = 0, sg = 0;
+            for (int i = start; i < end; i++) {
+                sw += w[i] * w[i];
+                sg += g[i] * g[i];
+            }
+            this.setNorms(p, flat, sw, sg);
+            return;
+        }
+        double[] v = this.v;
+        double rate = this.lr * this.trust[p], mu = this.mu;
+        double decay = this.params.isVector(p) ? 0 : this.weightDecay;
+        boolean zero = this.zero;
+        for (int i = start, k = flat; i < end; i++, k++) {
+            double vk = mu * v[k] + rate * (g[i] + decay * w[i]);
+            v[k] = vk;
+            w[i] -= vk;
+            if (zero) {
+                g[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public void apply(float[] w, float[] g, int start, int end, int flat) {
+        int p = this.params.matrixOf(flat);
+        if (this.norms) {
+            double sw = 0, sg = 0;
+            for (int i = start; i < end; i++) {
+                sw += w[i] * w[i];
+                sg += g[i] * g[i];
+            }
+            this.setNorms(p, flat, sw, sg);
+            return;
+        }
+        double[] v = this.v;
+        double rate = this.lr * this.trust[p], mu = this.mu;
+        double decay = this.params.isVector(p) ? 0 : this.weightDecay;
+        boolean zero = this.zero;
+        for (int i = start, k = flat; i < end; i++, k++) {
+            double vk = mu * v[k] + rate * (g[i] + decay * w[i]);
+            v[k] = vk;
+            w[i] -= (float) vk;
+            if (zero) {
+                g[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LARS(lr=%s, mu=%s, weight decay=%s, eta=%s)", this.lr, this.mu, this.weightDecay, this.eta);
+    }
+}
@@ -0,0 +1,131 @@
+// File: LearningRateScheduler.java
+// Learning rate warmup and decay
+package minet.optim;
+
+/**
+ * Sets the learning rate of an optimizer before each update: a linear warmup from 0 to the
+ * base learning rate over the first warmupSteps updates, then a decay. Large minibatches need
+ * large learning rates, which make the first updates (with random weights) diverge; the
+ * warmup avoids that.
+ *
+ * <pre>
+ * LearningRateScheduler scheduler = LearningRateScheduler.cosine(optimizer, 4.0, 10, 100);
+ * for each minibatch: forward, backward, scheduler.step(), optimizer.updateWeights()
+ * </pre>
+ */
+public class LearningRateScheduler {
+
+    public enum Decay { CONSTANT, COSINE, STEP }
+
+    Optimizer optimizer;
+    Decay decay;
+    double baseLr;
+    int warmupSteps;
+    int totalSteps;    // COSINE: the learning rate reaches minLr after totalSteps updates
+    double minLr;
+    int stepSize;      // STEP: the learning rate is multiplied by gamma every stepSize updates
+    double gamma;
+    int t;             // number of updates so far
+
+    LearningRateScheduler(Optimizer optimizer, Decay decay, double baseLr, int warmupSteps) {
+        if (warmupSteps < 0) {
+            throw new IllegalArgumentException("warmupSteps must not be negative: " + warmupSteps);
+        }
+        this.optimizer = optimizer;
+        this.decay = decay;
+        this.baseLr = baseLr;
+        this.warmupSteps = warmupSteps;
+    }
+
+    /**
+     * Warmup, then the base learning rate.
+     */
+    public static LearningRateScheduler constant(Optimizer optimizer, double baseLr, int warmupSteps) {
+        return new LearningRateScheduler(optimizer, Decay.CONSTANT, baseLr, warmupSteps);
+    }
+
+    /**
+     * Warmup, then a cosine decay from the base learning rate to 0 at update totalSteps.
+     */
+    public static LearningRateScheduler cosine(Optimizer optimizer, double baseLr, int warmupSteps, int totalSteps) {
+        return cosine(optimizer, baseLr, warmupSteps, totalSteps, 0);
+    }
+
+    /**
+     * Warmup, then a cosine decay from the base learning rate to minLr at update totalSteps.
+     */
+    public static LearningRateScheduler cosine(Optimizer optimizer, double baseLr, int warmupSteps, int totalSteps,
+                                               double minLr) {
+        if (totalSteps <= warmupSteps) {
+            throw new IllegalArgumentException("totalSteps (" + totalSteps + ") must be larger than warmupSteps ("
+                    + warmupSteps + ")");
+        }
+        LearningRateScheduler s = new LearningRateScheduler(optimizer, Decay.COSINE, baseLr, warmupSteps);
+        s.totalSteps = totalSteps;
+        s.minLr = minLr;
+        return s;
+    }
+
+    /**
+     * Warmup, then the base learning rate multiplied by gamma every stepSize updates.
+     */
+    public static LearningRateScheduler step(Optimizer optimizer, double baseLr, int warmupSteps, int stepSize,
+                                             double gamma) {
+        if (stepSize < 1) {
+            throw new IllegalArgumentException("stepSize must be positive: " + stepSize);
+        }
+        LearningRateScheduler s = new LearningRateScheduler(optimizer, Decay.STEP, baseLr, warmupSteps);
+        s.stepSize = stepSize;
+        s.gamma = gamma;
+        return s;
+    }
+
+    /**
+     * @param t the number of updates before this one
+     * @return the learning rate of update t
+     */
+    public double getLearningRate(int t) {
+        if (t < this.warmupSteps) {
+            return this.baseLr * (t + 1) / this.warmupSteps;
+        }
+        int after = t - this.warmupSteps;
+        switch (this.decay) {
+            case COSINE:
+                double progress = Math.min(1, after / (double) (this.totalSteps - this.warmupSteps));
+                return this.minLr + (this.baseLr - this.minLr) * 0.5 * (1 + Math.cos(Math.PI * progress));
+            case STEP:
+                return this.baseLr * Math.pow(this.gamma, after / this.stepSize);
+            default:
+                return this.baseLr;
+        }
+    }
+
+    /**
+     * Set the learning rate of the optimizer for the next update. Call once before each update.
+     * @return the learning rate
+     */
+    public double step() {
+        double lr = this.getLearningRate(this.t);
+        this.optimizer.setLearningRate(lr);
+        this.t++;
+        return lr;
+    }
+
+    /**
+     * @return the number of updates so far
+     */
+    public int getSteps() {
+        return this.t;
+    }
+
+    @Override
+    public String toString() {
+        String str = String.format("%s schedule, base lr %s, %d warmup steps", this.decay, this.baseLr, this.warmupSteps);
+        if (this.decay == Decay.COSINE) {
+            str += String.format(", %d steps", this.totalSteps);
+        } else if (this.decay == Decay.STEP) {
+            str += String.format(", x%s every %d steps", this.gamma, this.stepSize);
+        }
+        return str;
+    }
+}
@@ -0,0 +1,107 @@
+// File: Momentum.java
+// SGD with momentum
+package minet.optim;
+
+import minet.layer.Layer;
+
+/**
+ * SGD with (heavy ball or Nesterov) momentum. A velocity is kept for each parameter:
+ * <pre>
+ * v = mu * v + g
+ * w = w - lr * v                 (heavy ball)
+ * w = w - lr * (g + mu * v)      (Nesterov)
+ * </pre>
+ * The velocities are kept in one flat array, and each update is a single pass over the
+ * parameters, the velocities and the gradients (see {@link Parameters}).
+ */
+public class Momentum implements Optimizer, Parameters.Pass {
+    Parameters params;
+    double[] v;  // velocity, by flat index of the parameters
+    double lr, mu;
+    boolean nesterov;
+    boolean zero;  // whether the current update also resets the gradients
+
+    /**
+     * Heavy ball momentum. The precision of the network must be set (see
+     * {@link Layer#setPrecision}) before the optimizer is created.
+     * @param mu the momentum, e.g. 0.9
+     */
+    public Momentum(Layer net, double learningRate, double mu) {
+        this(net, learningRate, mu, false);
+    }
+
+    /**
+     * @param mu the momentum, e.g. 0.9
+     * @param nesterov true for Nesterov momentum
+     */
+    public Momentum(Layer net, double learningRate, double mu, boolean nesterov) {
+        this.params = new Parameters(net);
+        this.v = new double[Math.toIntExact(this.params.getSize())];
+        this.lr = learningRate;
+        this.mu = mu;
+        this.nesterov = nesterov;
+    }
+
+    /**
+     * Set learning rate.
+     * @param lr a double
+     */
+    @Override
+    public void setLearningRate(double lr) {
+        this.lr = lr;
+    }
+
+    @Override
+    public void resetGradients() {
+        this.params.zeroGradients();
+    }
+
+    @Override
+    public void updateWeights() {
+        this.zero = false;
+        this.params.run(this);
+    }
+
+    @Override
+    public void updateWeightsAndResetGradients() {
+        this.zero = true;
+        this.params.run(this);
+    }
+
+    @Override
+    public void apply(double[] w, double[] g, int start, int end, int flat) {
+        double[] v = this.v;
+        double lr = this.lr, mu = this.mu;
+        boolean nesterov = this.nesterov, zero = this.zero;
+        for (int i = start, k = flat; i < end; i++, k++) {
+            double gi = g[i];
+            double vi = mu * v[k] + gi;
+            v[k] = vi;
+            w[i] -= lr * (nesterov ? gi + mu * vi : vi);
+            if (zero) {
+                g[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public void apply(float[] w, float[] g, int start, int end, int flat) {
+        double[] v = this.v;
+        double lr = this.lr, mu = this.mu;
+        boolean nesterov = this.nesterov, zero = this.zero;
+        for (int i = start, k = flat; i < end; i++, k++) {
+            double gi = g[i];
+            double vi = mu * v[k] + gi;
+            v[k] = vi;
+            w[i] -= (float) (lr * (nesterov ? gi + mu * vi : vi));
+            if (zero) {
+                g[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(lr=%s, mu=%s)", this.nesterov ? "Nesterov" : "Momentum", this.lr, this.mu);
+    }
+}
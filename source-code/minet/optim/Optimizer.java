@@ -23,4 +23,20 @@ public interface Optimizer {
      * Update parameters using the gradients computed by {@link minet.layer.Layer#backward(DoubleMatrix)}.
      */
     public void updateWeights();
+
+    /**
+     * Same as {@link #updateWeights()} followed by {@link #resetGradients()}, which an
+     * optimizer may do in a single pass over the parameters. The training loop then resets
+     * the gradients once before the first minibatch, and calls this after each one.
+     */
+    public default void updateWeightsAndResetGradients() {
+        this.updateWeights();
+        this.resetGradients();
+    }
+
+    /**
+     * Set the learning rate of the next updates (e.g. by a {@link LearningRateScheduler}).
+     * @param lr a double
+     */
+    public void setLearningRate(double lr);
 }
@@ -0,0 +1,95 @@
+// File: OptimizerBenchmark.java
+// Time to a target accuracy with each optimizer
+package minet.optim;
+
+import minet.Dataset;
+import minet.layer.Layer;
+import minet.layer.Linear;
+import minet.layer.Sequential;
+import minet.layer.Sigmoid;
+import minet.loss.SoftmaxCrossEntropy;
+import minet.util.CompressionReport;
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Train the network of Part1 (784-1000-10, sigmoid, minibatches of 1000) from the same
+ * initial weights with each optimizer, and report the training time (evaluation excluded)
+ * and the number of updates until the accuracy on the dev set reaches a target. The whole dev
+ * set is scored after every update (see evalEvery), so the number of updates is exact; the
+ * evaluation is not counted in the training time.
+ *
+ * <pre>
+ * java minet.optim.OptimizerBenchmark [seed] [train.txt] [dev.txt] [target accuracy] [max epochs]
+ * </pre>
+ */
+public class OptimizerBenchmark {
+
+    interface Factory {
+        Optimizer create(Layer net);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.err.println("usage: OptimizerBenchmark [seed] [train.txt] [dev.txt] [target accuracy] [max epochs]");
+            return;
+        }
+        int seed = Integer.parseInt(args[0]);
+        Dataset trainset = Dataset.loadTxt(args[1]);
+        Dataset devset = Dataset.loadTxt(args[2]);
+        double target = Double.parseDouble(args[3]);
+        int maxEpochs = Integer.parseInt(args[4]);
+        int batchsize = 1000;
+        int evalEvery = 1;  // updates between dev set evaluations: the granularity of the update counts
+
+        Factory[] optimizers = new Factory[] {
+            net -> new SGD(net, 1.0),
+            net -> new Momentum(net, 0.1, 0.9),
+            net -> new Momentum(net, 0.1, 0.9, true),
+            net -> new Adam(net, 1e-3),
+            net -> new AdamW(net, 1e-3, 1e-2)
+        };
+
+        System.out.printf("%-34s %10s %10s %12s%n", "optimizer", "updates", "train (s)", "dev accuracy");
+        for (Factory factory : optimizers) {
+            org.jblas.util.Random.seed(seed);
+            Random rnd = new Random(seed);
+            Sequential net = new Sequential(new Layer[] {
+                new Linear(trainset.getInputDims(), 1000, new Linear.WeightInitXavier()),
+                new Sigmoid(),
+                new Linear(1000, 10, new Linear.WeightInitXavier())
+            });
+            net.createWorkspace(batchsize, trainset.getInputDims());
+            SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
+            Optimizer optimizer = factory.create(net);
+
+            long nanos = 0;
+            int updates = 0;
+            double acc = 0;
+            optimizer.resetGradients();
+            for (int e = 0; e < maxEpochs && acc < target; e++) {
+                trainset.shuffle(rnd);
+                Pair<DoubleMatrix> batch;
+                while (acc < target && (batch = trainset.getNextMiniBatch(batchsize)) != null) {
+                    long t0 = System.nanoTime();
+                    loss.forward(batch.second, net.forward(batch.first));
+                    net.backward(loss.backward());
+                    optimizer.updateWeightsAndResetGradients();
+                    nanos += System.nanoTime() - t0;
+                    updates++;
+                    if (updates % evalEvery == 0) {
+                        net.setTraining(false);
+                        acc = CompressionReport.accuracy(net, devset, batchsize);
+                        net.setTraining(true);
+                    }
+                }
+            }
+            trainset.reset();
+            System.out.printf("%-34s %10s %10.2f %12.4f%n", optimizer,
+                    acc >= target ? Integer.toString(updates) : "-", nanos * 1e-9, acc);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+// File: Parameters.java
+// The parameters of a network as one flat range
+package minet.optim;
+
+import minet.layer.Layer;
+import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * All the weights and gradients of a network (see {@link Layer#getAllWeights(List)}), addressed
+ * as one flat range of parameters: the arrays of the double precision parameters, one after
+ * the other, then those of the single precision ones. The arrays are those of the layers'
+ * matrices, so the layers and the optimizer work on the same memory.
+ *
+ * An update (e.g. w += alpha * g, optionally setting g to 0 in the same pass, or the
+ * element-wise update of an optimizer with state, see {@link Pass}) or the zeroing of the
+ * gradients is one pass over the flat range, which is cut into stripes of equal size across
+ * the matrix boundaries, one per thread of a fork/join pool. The stripes and their tasks are
+ * created once, so a pass allocates nothing.
+ *
+ * The arrays are collected once: if the layers get new ones (e.g. {@link Layer#setPrecision}
+ * after the optimizer was created), the next pass throws an {@link IllegalStateException}
+ * rather than updating arrays the network no longer uses.
+ */
+public class Parameters {
+
+    // below this number of parameters, a pass runs on the calling thread
+    static final long PARALLEL_SIZE = 1 << 16;
+
+    Layer net;
+    double[][] weights, grads;
+    float[][] floatWeights, floatGrads;
+    long[] offsets;  // flat index of the first entry of each array, then the total size
+    boolean[] vectors;  // whether each matrix has a single row or column (e.g. a bias)
+    ForkJoinPool pool;
+    Stripe[] stripes;
+    RecursiveAction all;
+    // reused by each pass to collect the matrices of the network, see checkArrays
+    List<DoubleMatrix> currentWeights = new ArrayList<DoubleMatrix>(), currentGrads = new ArrayList<DoubleMatrix>();
+    List<FloatMatrix> currentFloatWeights = new ArrayList<FloatMatrix>(),
+            currentFloatGrads = new ArrayList<FloatMatrix>();
+
+    Pass pass;  // the pass being run
+    Axpy axpy = new Axpy();
+
+    /**
+     * An element-wise pass over the parameters, e.g. the update of an optimizer. Optimizers
+     * with a state per parameter (e.g. {@link Adam}) keep it in flat arrays of
+     * {@link #getSize()} entries, indexed by the flat index of the parameter.
+     */
+    public interface Pass {
+        /**
+         * Apply the pass to the entries [start, end) of a weight array and its gradient.
+         * The pass runs concurrently on the other stripes of the parameters, and a matrix
+         * may be split between several stripes (see {@link Parameters#matrixOf(long)}).
+         * @param flat the flat index of w[start]
+         */
+        public void apply(double[] w, double[] g, int start, int end, int flat);
+
+        /**
+         * Single precision version of the above.
+         */
+        public void apply(float[] w, float[] g, int start, int end, int flat);
+    }
+
+    /**
+     * Collect the parameters of a network. The precision of the network must be set (see
+     * {@link Layer#setPrecision}) beforehand.
+     */
+    public Parameters(Layer net) {
+        this(net, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param net the network
+     * @param pool the threads to run the passes on
+     */
+    public Parameters(Layer net, ForkJoinPool pool) {
+        List<DoubleMatrix> w = net.getAllWeights(new LinkedList<DoubleMatrix>());
+        List<DoubleMatrix> g = net.getAllGradients(new LinkedList<DoubleMatrix>());
+        List<FloatMatrix> fw = net.getAllFloatWeights(new LinkedList<FloatMatrix>());
+        List<FloatMatrix> fg = net.getAllFloatGradients(new LinkedList<FloatMatrix>());
+        if (w.size() != g.size() || fw.size() != fg.size()) {
+            throw new IllegalArgumentException(net + " has " + (w.size() + fw.size()) + " weight matrices but "
+                    + (g.size() + fg.size()) + " gradients");
+        }
+        this.net = net;
+        this.weights = new double[w.size()][];
+        this.grads = new double[g.size()][];
+        this.floatWeights = new float[fw.size()][];
+        this.floatGrads = new float[fg.size()][];
+        this.offsets = new long[w.size() + fw.size() + 1];
+        this.vectors = new boolean[w.size() + fw.size()];
+        for (int p = 0; p < w.size(); p++) {
+            this.weights[p] = w.get(p).data;
+            this.grads[p] = g.get(p).data;
+            this.offsets[p + 1] = this.offsets[p] + w.get(p).length;
+            this.vectors[p] = w.get(p).isVector();
+        }
+        for (int p = 0; p < fw.size(); p++) {
+            int q = w.size() + p;
+            this.floatWeights[p] = fw.get(p).data;
+            this.floatGrads[p] = fg.get(p).data;
+            this.offsets[q + 1] = this.offsets[q] + fw.get(p).length;
+            this.vectors[q] = fw.get(p).isVector();
+        }
+
+        this.pool = pool;
+        long size = this.getSize();
+        int nStripes = size < PARALLEL_SIZE ? 1 : pool.getParallelism();
+        this.stripes = new Stripe[nStripes];
+        for (int s = 0; s < nStripes; s++) {
+            this.stripes[s] = new Stripe(size * s / nStripes, size * (s + 1) / nStripes);
+        }
+        this.all = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(stripes);
+            }
+        };
+    }
+
+    /**
+     * @return the total number of parameters
+     */
+    public long getSize() {
+        return this.offsets[this.offsets.length - 1];
+    }
+
+    /**
+     * @return the number of parameter matrices
+     */
+    public int getCount() {
+        return this.vectors.length;
+    }
+
+    /**
+     * @return the index of the matrix holding the parameter of the given flat index
+     */
+    public int matrixOf(long flat) {
+        int p = Arrays.binarySearch(this.offsets, flat);
+        if (p < 0) {
+            return -p - 2;
+        }
+        // skip the empty matrices starting at the same index
+        while (this.offsets[p + 1] == flat) {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * @return the number of stripes a pass is cut into
+     */
+    public int getStripeCount() {
+        return this.stripes.length;
+    }
+
+    /**
+     * A pass is applied once to the part of each matrix in each stripe, so it can keep a
+     * partial result per matrix and stripe, and combine them in stripe order: the result then
+     * does not depend on the order in which the stripes finish.
+     * @return the stripe holding the parameter of the given flat index
+     */
+    public int stripeOf(long flat) {
+        int lo = 0, hi = this.stripes.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (this.stripes[mid].from <= flat) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return whether a parameter matrix has a single row or column, e.g. a bias vector
+     */
+    public boolean isVector(int matrix) {
+        return this.vectors[matrix];
+    }
+
+    /**
+     * g = 0, for all the gradients.
+     */
+    public void zeroGradients() {
+        this.axpy.set(0, false, true);
+        this.run(this.axpy);
+    }
+
+    /**
+     * w += alpha * g, for all the parameters.
+     * @param alpha e.g. minus the learning rate
+     * @param zeroGradients whether to also set the gradients to 0, in the same pass
+     */
+    public void update(double alpha, boolean zeroGradients) {
+        this.axpy.set(alpha, true, zeroGradients);
+        this.run(this.axpy);
+    }
+
+    /**
+     * Run a pass over all the parameters, on the threads of the pool (the stripes are
+     * disjoint, so the pass needs no synchronisation).
+     */
+    public void run(Pass pass) {
+        this.checkArrays();
+        this.pass = pass;
+        if (this.stripes.length == 1) {
+            this.stripes[0].apply();
+            return;
+        }
+        for (Stripe s : this.stripes) {
+            s.reinitialize();
+        }
+        this.all.reinitialize();
+        if (RecursiveAction.getPool() == this.pool) {
+            this.all.invoke();
+        } else {
+            this.pool.invoke(this.all);
+        }
+    }
+
+    /**
+     * Throw an IllegalStateException if the matrices of the network no longer have the arrays
+     * collected at construction (the lists are reused, so the check allocates nothing).
+     */
+    void checkArrays() {
+        List<DoubleMatrix> w = this.net.getAllWeights(this.currentWeights);
+        List<DoubleMatrix> g = this.net.getAllGradients(this.currentGrads);
+        List<FloatMatrix> fw = this.net.getAllFloatWeights(this.currentFloatWeights);
+        List<FloatMatrix> fg = this.net.getAllFloatGradients(this.currentFloatGrads);
+        boolean same = w.size() == this.weights.length && g.size() == this.grads.length
+                && fw.size() == this.floatWeights.length && fg.size() == this.floatGrads.length;
+        for (int p = 0; same && p < this.weights.length; p++) {
+            same = w.get(p).data == this.weights[p] && g.get(p).data == this.grads[p]
+                    && w.get(p).length == this.offsets[p + 1] - this.offsets[p];
+        }
+        for (int p = 0; same && p < this.floatWeights.length; p++) {
+            int q = this.weights.length + p;
+            same = fw.get(p).data == this.floatWeights[p] && fg.get(p).data == this.floatGrads[p]
+                    && fw.get(p).length == this.offsets[q + 1] - this.offsets[q];
+        }
+        w.clear();
+        g.clear();
+        fw.clear();
+        fg.clear();
+        if (!same) {
+            throw new IllegalStateException("the weights or gradients of the network are no longer the arrays"
+                    + " the optimizer was created with (was the precision set afterwards?): create a new optimizer");
+        }
+    }
+
+    /**
+     * The pass on the flat range [from, to).
+     */
+    class Stripe extends RecursiveAction {
+        private static final long serialVersionUID = -1264203755665049008L;
+
+        long from, to;
+
+        Stripe(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            this.apply();
+        }
+
+        void apply() {
+            int nDouble = weights.length;
+            for (int p = 0; p + 1 < offsets.length; p++) {
+                if (offsets[p + 1] <= this.from || offsets[p] >= this.to) {
+                    continue;
+                }
+                // the part of array p in the stripe
+                int start = (int) (Math.max(this.from, offsets[p]) - offsets[p]);
+                int end = (int) (Math.min(this.to, offsets[p + 1]) - offsets[p]);
+                int flat = (int) (offsets[p] + start);
+                if (p < nDouble) {
+                    pass.apply(weights[p], grads[p], start, end, flat);
+                } else {
+                    pass.apply(floatWeights[p - nDouble], floatGrads[p - nDouble], start, end, flat);
+                }
+            }
+        }
+    }
+
+    /**
+     * w += alpha * g (if update), then g = 0 (if zero).
+     */
+    static class Axpy implements Pass {
+        double alpha;
+        boolean update, zero;
+
+        void set(double alpha, boolean update, boolean zero) {
+            this.alpha = alpha;
+            this.update = update;
+            this.zero = zero;
+        }
+
+        @Override
+        public void apply(double[] w, double[] g, int start, int end, int flat) {
+            double a = this.alpha;
+            if (this.update && this.zero) {
+                for (int i = start; i < end; i++) {
+                    w[i] += a * g[i];
+                    g[i] = 0;
+                }
+            } else if (this.update) {
+                for (int i = start; i < end; i++) {
+                    w[i] += a * g[i];
+                }
+            } else if (this.zero) {
+                Arrays.fill(g, start, end, 0);
+            }
+        }
+
+        @Override
+        public void apply(float[] w, float[] g, int start, int end, int flat) {
+            float a = (float) this.alpha;
+            if (this.update && this.zero) {
+                for (int i = start; i < end; i++) {
+                    w[i] += a * g[i];
+                    g[i] = 0;
+                }
+            } else if (this.update) {
+                for (int i = start; i < end; i++) {
+                    w[i] += a * g[i];
+                }
+            } else if (this.zero) {
+                Arrays.fill(g, start, end, 0);
+            }
+        }
+    }
+}
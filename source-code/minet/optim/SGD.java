@@ -3,56 +3,53 @@
 package minet.optim;
 
 import minet.layer.Layer;
-import org.jblas.DoubleMatrix;
-
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
 
 
 /**
- * SGD (stochastic gradient descent) class
+ * SGD (stochastic gradient descent) class. The parameters are updated (and the gradients
+ * reset) in single passes over all of them (see {@link Parameters}), which allocate nothing.
  * @author Phong Le
  */
 public class SGD implements Optimizer {
-    List<DoubleMatrix> weights;
-    List<DoubleMatrix> grads;
+    Parameters params;
     double lr;
 
+    /**
+     * The precision of the network must be set (see {@link Layer#setPrecision}) before
+     * the optimizer is created.
+     */
     public SGD(Layer net, double learningRate) {
         this.lr = learningRate;
-
-        this.weights = new LinkedList<DoubleMatrix>();
-        this.grads = new LinkedList<DoubleMatrix>();
-        net.getAllWeights(this.weights);
-        net.getAllGradients(this.grads);
+        this.params = new Parameters(net);
     }
 
     /**
      * Set learning rate.
      * @param lr a double
      */
+    @Override
     public void setLearningRate(double lr) {
         this.lr = lr;
     }
 
     @Override
     public void resetGradients() {
-        ListIterator<DoubleMatrix> gIter = this.grads.listIterator();
-        while (gIter.hasNext()) {
-            DoubleMatrix g = gIter.next();
-            g.fill(0);
-        }
+        this.params.zeroGradients();
     }
 
     @Override
     public void updateWeights() {
-        ListIterator<DoubleMatrix> wIter = this.weights.listIterator();
-        ListIterator<DoubleMatrix> gIter = this.grads.listIterator();
-        while (gIter.hasNext() && wIter.hasNext()) {
-            DoubleMatrix w = wIter.next();
-            DoubleMatrix g = gIter.next();
-            w.addi(g.mul(-this.lr));
-        }
+        // w = w - lr * g
+        this.params.update(-this.lr, false);
+    }
+
+    @Override
+    public void updateWeightsAndResetGradients() {
+        this.params.update(-this.lr, true);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SGD(lr=%s)", this.lr);
     }
 }
@@ -0,0 +1,158 @@
+// File: Pruner.java
+// Magnitude pruning
+package minet.prune;
+
+import minet.Dataset;
+import minet.layer.Layer;
+import minet.layer.Linear;
+import minet.layer.Sequential;
+import minet.layer.Sigmoid;
+import minet.layer.SparseLinear;
+import minet.loss.Loss;
+import minet.loss.SoftmaxCrossEntropy;
+import minet.optim.Optimizer;
+import minet.optim.SGD;
+import minet.util.CompressionReport;
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Magnitude pruning of the {@link Linear} layers of a {@link Sequential} network: in each
+ * layer, the given fraction of the weights with the smallest absolute values is set to 0
+ * (see {@link Linear#setMask(DoubleMatrix)}). The pruned weights stay at 0 when the network
+ * is trained further, so it can be fine-tuned with the usual training loop. Once trained,
+ * {@link #toSparse(Sequential)} gives a network for inference which stores and multiplies only
+ * the remaining weights.
+ *
+ * <pre>
+ * Pruner.prune(net, 0.9);
+ * ... fine-tune net with SGD ...
+ * Sequential snet = Pruner.toSparse(net);
+ * </pre>
+ */
+public class Pruner {
+
+    /**
+     * Prune every Linear layer of a network to the given sparsity.
+     * @param net the network
+     * @param sparsity the fraction of the weights of each layer to set to 0, in [0, 1]
+     */
+    public static void prune(Sequential net, double sparsity) {
+        for (Layer layer : net.getLayers()) {
+            if (layer instanceof Linear) {
+                prune((Linear) layer, sparsity);
+            }
+        }
+    }
+
+    /**
+     * Set the fraction sparsity of the weights of a layer with the smallest absolute values
+     * to 0 (ties at the threshold are broken by position).
+     */
+    public static void prune(Linear layer, double sparsity) {
+        DoubleMatrix W = layer.getWeights();
+        int nPruned = (int) Math.round(sparsity * W.length);
+        DoubleMatrix mask = DoubleMatrix.ones(W.rows, W.columns);
+        if (nPruned > 0) {
+            double[] abs = new double[W.length];
+            for (int k = 0; k < W.length; k++) {
+                abs[k] = Math.abs(W.data[k]);
+            }
+            Arrays.sort(abs);
+            double threshold = abs[nPruned - 1];
+
+            // all the weights below the threshold, then as many at the threshold as needed
+            int atThreshold = nPruned;
+            for (int k = 0; k < W.length; k++) {
+                if (Math.abs(W.data[k]) < threshold) {
+                    mask.data[k] = 0;
+                    atThreshold--;
+                }
+            }
+            for (int k = 0; k < W.length && atThreshold > 0; k++) {
+                if (Math.abs(W.data[k]) == threshold) {
+                    mask.data[k] = 0;
+                    atThreshold--;
+                }
+            }
+        }
+        layer.setMask(mask);
+    }
+
+    /**
+     * @param net a pruned network
+     * @return a copy of net for inference, with each Linear layer stored as a {@link SparseLinear}
+     */
+    public static Sequential toSparse(Sequential net) {
+        Layer[] layers = net.getLayers();
+        Layer[] slayers = new Layer[layers.length];
+        for (int l = 0; l < layers.length; l++) {
+            slayers[l] = layers[l] instanceof Linear ? new SparseLinear((Linear) layers[l]) : layers[l].replicate();
+        }
+        Sequential snet = new Sequential(slayers);
+        snet.setTraining(false);
+        return snet;
+    }
+
+    /**
+     * Train a network with SGD for some epochs (e.g. to fine-tune it after pruning).
+     * @return the total loss of the last epoch
+     */
+    public static double train(Layer net, Loss loss, Optimizer optimizer, Dataset data, int batchsize,
+                               int nEpochs, Random rnd) {
+        double totalLoss = 0;
+        for (int e = 0; e < nEpochs; e++) {
+            data.shuffle(rnd);
+            totalLoss = 0;
+            Pair<DoubleMatrix> batch;
+            while ((batch = data.getNextMiniBatch(batchsize)) != null) {
+                optimizer.resetGradients();
+                totalLoss += loss.forward(batch.second, net.forward(batch.first));
+                net.backward(loss.backward());
+                optimizer.updateWeights();
+            }
+        }
+        return totalLoss;
+    }
+
+    /**
+     * Train a network, prune it, fine-tune it, and compare the dense and the sparse versions.
+     * Usage: Pruner [seed] [train.txt] [test.txt] [sparsity] [epochs] [fine-tuning epochs]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 6) {
+            System.err.println("usage: Pruner [seed] [train.txt] [test.txt] [sparsity] [epochs] [fine-tuning epochs]");
+            return;
+        }
+        org.jblas.util.Random.seed(Integer.parseInt(args[0]));
+        Random rnd = new Random(Integer.parseInt(args[0]));
+        Dataset trainset = Dataset.loadTxt(args[1]);
+        Dataset testset = Dataset.loadTxt(args[2]);
+        double sparsity = Double.parseDouble(args[3]);
+
+        Sequential net = new Sequential(new Layer[] {
+            new Linear(trainset.getInputDims(), 1000, new Linear.WeightInitXavier()),
+            new Sigmoid(),
+            new Linear(1000, 10, new Linear.WeightInitXavier())
+        });
+        SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
+        SGD sgd = new SGD(net, 1.0);
+        int batchsize = 100;
+        train(net, loss, sgd, trainset, batchsize, Integer.parseInt(args[4]), rnd);
+        net.setTraining(false);
+        System.out.printf("accuracy before pruning: %.4f\n", CompressionReport.accuracy(net, testset, 1000));
+
+        prune(net, sparsity);
+        System.out.printf("accuracy after pruning: %.4f\n", CompressionReport.accuracy(net, testset, 1000));
+        net.setTraining(true);
+        train(net, loss, sgd, trainset, batchsize, Integer.parseInt(args[5]), rnd);
+
+        Sequential snet = toSparse(net);
+        System.out.println(snet);
+        System.out.println(CompressionReport.compare(net, snet, "sparse", testset, 1000));
+    }
+}
@@ -0,0 +1,119 @@
+// File: Quantizer.java
+// Post-training int8 quantization
+package minet.quant;
+
+import minet.Dataset;
+import minet.layer.Layer;
+import minet.layer.Linear;
+import minet.layer.QuantizedLinear;
+import minet.layer.Sequential;
+import minet.layer.Sigmoid;
+import minet.loss.SoftmaxCrossEntropy;
+import minet.optim.SGD;
+import minet.util.CompressionReport;
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Post-training quantization of a trained {@link Sequential} network: the input range of each
+ * {@link Linear} layer is calibrated on a sample of a dataset, and the layer is converted to a
+ * {@link QuantizedLinear} (int8 weights with per-channel scales, int32 accumulation). The
+ * result is a separate network for inference; the trained network is left unchanged.
+ *
+ * <pre>
+ * Sequential qnet = Quantizer.quantize(net, trainset, 1000, 100);
+ * System.out.println(Quantizer.report(net, qnet, testset, 1000));
+ * </pre>
+ */
+public class Quantizer {
+
+    /**
+     * @param net a trained network
+     * @param calib the dataset to calibrate on (read from its current order)
+     * @param nSamples the number of instances to calibrate on
+     * @param batchsize the minibatch size used for calibration
+     * @return a quantized copy of net, in inference mode
+     */
+    public static Sequential quantize(Sequential net, Dataset calib, int nSamples, int batchsize) {
+        Layer[] layers = net.getLayers();
+
+        // the largest absolute input of each layer over the sample
+        double[] xMax = new double[layers.length];
+        boolean training = net.isTraining();
+        net.setTraining(false);
+        calib.reset();
+        Pair<DoubleMatrix> batch;
+        int seen = 0;
+        while (seen < nSamples && (batch = calib.getNextMiniBatch(Math.min(batchsize, nSamples - seen))) != null) {
+            DoubleMatrix X = batch.first;
+            for (int l = 0; l < layers.length; l++) {
+                if (layers[l] instanceof Linear) {
+                    xMax[l] = Math.max(xMax[l], X.normmax());
+                }
+                X = layers[l].infer(X, l > 0);
+            }
+            seen += batch.first.rows;
+        }
+        calib.reset();
+        net.setTraining(training);
+
+        Layer[] qlayers = new Layer[layers.length];
+        for (int l = 0; l < layers.length; l++) {
+            qlayers[l] = layers[l] instanceof Linear ? new QuantizedLinear((Linear) layers[l], xMax[l])
+                    : layers[l].replicate();
+        }
+        Sequential qnet = new Sequential(qlayers);
+        qnet.setTraining(false);
+        return qnet;
+    }
+
+    /**
+     * Compare a network and its quantized version on a dataset.
+     * @return the accuracy, time and parameter size of both networks, and their ratios
+     */
+    public static String report(Sequential net, Sequential qnet, Dataset data, int batchsize) {
+        return CompressionReport.compare(net, qnet, "int8", data, batchsize);
+    }
+
+    /**
+     * Train a network for a few epochs, quantize it and compare both versions.
+     * Usage: Quantizer [seed] [train.txt] [test.txt] [epochs]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("usage: Quantizer [seed] [train.txt] [test.txt] [epochs]");
+            return;
+        }
+        org.jblas.util.Random.seed(Integer.parseInt(args[0]));
+        Random rnd = new Random(Integer.parseInt(args[0]));
+        Dataset trainset = Dataset.loadTxt(args[1]);
+        Dataset testset = Dataset.loadTxt(args[2]);
+        int nEpochs = Integer.parseInt(args[3]);
+
+        Sequential net = new Sequential(new Layer[] {
+            new Linear(trainset.getInputDims(), 1000, new Linear.WeightInitXavier()),
+            new Sigmoid(),
+            new Linear(1000, 10, new Linear.WeightInitXavier())
+        });
+        SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
+        SGD sgd = new SGD(net, 1.0);
+        int batchsize = 100;
+        for (int e = 0; e < nEpochs; e++) {
+            trainset.shuffle(rnd);
+            Pair<DoubleMatrix> batch;
+            while ((batch = trainset.getNextMiniBatch(batchsize)) != null) {
+                sgd.resetGradients();
+                loss.forward(batch.second, net.forward(batch.first));
+                net.backward(loss.backward());
+                sgd.updateWeights();
+            }
+        }
+
+        Sequential qnet = quantize(net, trainset, 1000, 1000);
+        System.out.println(qnet);
+        System.out.println(report(net, qnet, testset, 1000));
+    }
+}
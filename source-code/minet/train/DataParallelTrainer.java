@@ -0,0 +1,278 @@
+// File: DataParallelTrainer.java
+// Data-parallel training on several threads
+package minet.train;
+
+import minet.layer.Layer;
+import minet.layer.Workspace;
+import minet.loss.Loss;
+import minet.optim.Optimizer;
+import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Synchronous data-parallel training: each minibatch is split into K shards of rows, and K
+ * replicas of the network (see {@link Layer#replicate()}), which share one set of weights,
+ * run forward and backward on the shards concurrently. The gradients of the replicas are
+ * then summed into the gradients of the network (weighted by the shard sizes, so that the
+ * result is the gradient of the whole minibatch), with each of K threads reducing one stripe
+ * of every gradient matrix, before a single {@link Optimizer#updateWeights()}.
+ *
+ * <pre>
+ * DataParallelTrainer trainer = new DataParallelTrainer(net, loss, optimizer, 8);
+ * for each minibatch: lossVal = trainer.step(batch.first, batch.second);
+ * </pre>
+ *
+ * The native BLAS used by jblas may start its own threads inside each replica's matrix
+ * products; with one replica per core, limiting it to one thread (e.g. with
+ * OPENBLAS_NUM_THREADS=1) avoids oversubscribing the cores.
+ */
+public class DataParallelTrainer {
+
+    Layer net;
+    Optimizer optimizer;
+    int nReplicas;
+    Replica[] replicas;
+    ExecutorService pool;
+
+    // gradients of each replica, as primitive arrays in the order of getAllGradients
+    double[][][] grads;
+    float[][][] floatGrads;
+    double[] shardWeights;
+
+    List<Callable<Double>> computeTasks = new ArrayList<Callable<Double>>();
+    List<Callable<Double>> reduceTasks = new ArrayList<Callable<Double>>();
+
+    // throughput
+    long nSamples;
+    long nanos;
+
+    /**
+     * @param net the network; replica 0 is the network itself
+     * @param loss the loss; the other replicas use {@link Loss#replicate()}
+     * @param optimizer an optimizer created for net
+     * @param nReplicas the number of replicas (and threads)
+     */
+    public DataParallelTrainer(Layer net, Loss loss, Optimizer optimizer, int nReplicas) {
+        this.net = net;
+        this.optimizer = optimizer;
+        this.nReplicas = nReplicas;
+        this.replicas = new Replica[nReplicas];
+        this.grads = new double[nReplicas][][];
+        this.floatGrads = new float[nReplicas][][];
+        this.shardWeights = new double[nReplicas];
+        for (int k = 0; k < nReplicas; k++) {
+            Layer r = k == 0 ? net : net.replicate();
+            if (k > 0) {
+                r.setWorkspace(new Workspace());
+            }
+            this.replicas[k] = new Replica(k, r, k == 0 ? loss : loss.replicate());
+
+            List<DoubleMatrix> g = r.getAllGradients(new LinkedList<DoubleMatrix>());
+            this.grads[k] = new double[g.size()][];
+            for (int p = 0; p < g.size(); p++) {
+                this.grads[k][p] = g.get(p).data;
+            }
+            List<FloatMatrix> gf = r.getAllFloatGradients(new LinkedList<FloatMatrix>());
+            this.floatGrads[k] = new float[gf.size()][];
+            for (int p = 0; p < gf.size(); p++) {
+                this.floatGrads[k][p] = gf.get(p).data;
+            }
+
+            final int replica = k;
+            this.computeTasks.add(() -> this.replicas[replica].compute());
+            this.reduceTasks.add(() -> {
+                this.reduce(replica);
+                return 0.;
+            });
+        }
+        this.pool = Executors.newFixedThreadPool(nReplicas, r -> {
+            Thread t = new Thread(r, "minet-replica");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Run one training step (reset the gradients, forward, backward, all-reduce, update).
+     * @param X a [minibatch_size x input_dims] matrix
+     * @param Y a [minibatch_size x output_dims] matrix
+     * @return the loss of the minibatch
+     */
+    public double step(DoubleMatrix X, DoubleMatrix Y) {
+        long t0 = System.nanoTime();
+        int n = X.rows;
+        int k = 0;
+        for (; k < this.nReplicas && k < n; k++) {
+            int from = (int) ((long) n * k / Math.min(this.nReplicas, n));
+            int to = (int) ((long) n * (k + 1) / Math.min(this.nReplicas, n));
+            this.replicas[k].setShard(X, Y, from, to);
+            this.shardWeights[k] = (to - from) / (double) n;
+        }
+        for (; k < this.nReplicas; k++) {
+            this.replicas[k].setShard(X, Y, 0, 0);
+            this.shardWeights[k] = 0;
+        }
+
+        double lossVal = 0;
+        List<Double> losses = this.invokeAll(this.computeTasks);
+        for (k = 0; k < this.nReplicas; k++) {
+            lossVal += this.shardWeights[k] * losses.get(k);
+        }
+        this.invokeAll(this.reduceTasks);
+        this.optimizer.updateWeights();
+
+        this.nSamples += n;
+        this.nanos += System.nanoTime() - t0;
+        return lossVal;
+    }
+
+    /**
+     * grads[0] = sum_k shardWeights[k] * grads[k], on stripe s of every gradient.
+     */
+    void reduce(int s) {
+        for (int p = 0; p < this.grads[0].length; p++) {
+            double[] dst = this.grads[0][p];
+            int from = (int) ((long) dst.length * s / this.nReplicas);
+            int to = (int) ((long) dst.length * (s + 1) / this.nReplicas);
+            double w0 = this.shardWeights[0];
+            for (int i = from; i < to; i++) {
+                dst[i] *= w0;
+            }
+            for (int k = 1; k < this.nReplicas; k++) {
+                double[] src = this.grads[k][p];
+                double w = this.shardWeights[k];
+                if (w == 0) {
+                    continue;
+                }
+                for (int i = from; i < to; i++) {
+                    dst[i] += w * src[i];
+                }
+            }
+        }
+        for (int p = 0; p < this.floatGrads[0].length; p++) {
+            float[] dst = this.floatGrads[0][p];
+            int from = (int) ((long) dst.length * s / this.nReplicas);
+            int to = (int) ((long) dst.length * (s + 1) / this.nReplicas);
+            float w0 = (float) this.shardWeights[0];
+            for (int i = from; i < to; i++) {
+                dst[i] *= w0;
+            }
+            for (int k = 1; k < this.nReplicas; k++) {
+                float[] src = this.floatGrads[k][p];
+                float w = (float) this.shardWeights[k];
+                if (w == 0) {
+                    continue;
+                }
+                for (int i = from; i < to; i++) {
+                    dst[i] += w * src[i];
+                }
+            }
+        }
+    }
+
+    List<Double> invokeAll(List<Callable<Double>> tasks) {
+        try {
+            List<Double> results = new ArrayList<Double>(tasks.size());
+            for (Future<Double> f : this.pool.invokeAll(tasks)) {
+                results.add(f.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the number of instances trained on per second spent in {@link #step}
+     */
+    public double getSamplesPerSecond() {
+        return this.nSamples / Math.max(this.nanos * 1e-9, 1e-9);
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void close() {
+        this.pool.shutdown();
+    }
+
+    /**
+     * A replica of the network, with its own loss and its own shard matrices.
+     */
+    class Replica {
+        int index;
+        Layer net;
+        Loss loss;
+        DoubleMatrix X, Y;   // the whole minibatch
+        int from, to;        // the rows of the shard
+        DoubleMatrix sX, sY; // the shard, reused while its size is unchanged
+
+        Replica(int index, Layer net, Loss loss) {
+            this.index = index;
+            this.net = net;
+            this.loss = loss;
+        }
+
+        void setShard(DoubleMatrix X, DoubleMatrix Y, int from, int to) {
+            this.X = X;
+            this.Y = Y;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Reset the gradients of the replica, then run forward and backward on its shard.
+         * @return the loss of the shard
+         */
+        double compute() {
+            for (double[] g : grads[this.index]) {
+                Arrays.fill(g, 0);
+            }
+            for (float[] g : floatGrads[this.index]) {
+                Arrays.fill(g, 0);
+            }
+            int m = this.to - this.from;
+            if (m == 0) {
+                return 0;
+            }
+            DoubleMatrix X = this.X;
+            DoubleMatrix Y = this.Y;
+            if (m != this.X.rows) {
+                this.sX = rows(this.X, this.from, this.to, this.sX);
+                this.sY = rows(this.Y, this.from, this.to, this.sY);
+                X = this.sX;
+                Y = this.sY;
+            }
+            double lossVal = this.loss.forward(Y, this.net.forward(X));
+            this.net.backward(this.loss.backward());
+            return lossVal;
+        }
+    }
+
+    /**
+     * Copy rows [from, to) of a column-major matrix into dst (reallocated if its shape differs).
+     */
+    static DoubleMatrix rows(DoubleMatrix src, int from, int to, DoubleMatrix dst) {
+        int m = to - from;
+        if (dst == null || dst.rows != m || dst.columns != src.columns) {
+            dst = new DoubleMatrix(m, src.columns);
+        }
+        for (int j = 0; j < src.columns; j++) {
+            System.arraycopy(src.data, j * src.rows + from, dst.data, j * m, m);
+        }
+        return dst;
+    }
+}
@@ -0,0 +1,158 @@
+// File: GradientAccumulator.java
+// Training on large minibatches, a micro-batch at a time
+package minet.train;
+
+import minet.Dataset;
+import minet.layer.Layer;
+import minet.loss.Loss;
+import minet.optim.LearningRateScheduler;
+import minet.optim.Optimizer;
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+/**
+ * Gradient accumulation: each (logical) minibatch is processed as a sequence of micro-batches
+ * of at most microbatchsize instances. Forward and backward run on one micro-batch at a time,
+ * and since the layers add their gradients into gW and gb (see
+ * {@link minet.layer.Linear#backward(DoubleMatrix)}), the gradients of the micro-batches add
+ * up in the network's gradient buffers, before a single {@link Optimizer#updateWeights()}.
+ *
+ * The losses average over the instances of a minibatch, so the gradient of the loss of each
+ * micro-batch of m instances is scaled by m / n before backward, n being the size of the
+ * logical minibatch: the update is then the same as with the whole minibatch at once (up to
+ * rounding), while the activations kept by the layers, and the buffers of a
+ * {@link minet.layer.Workspace}, only ever hold microbatchsize rows.
+ *
+ * <pre>
+ * GradientAccumulator trainer = new GradientAccumulator(net, loss, optimizer, 500);
+ * for each epoch: totalLoss = trainer.trainEpoch(trainset, 8000);
+ * </pre>
+ */
+public class GradientAccumulator {
+
+    Layer net;
+    Loss loss;
+    Optimizer optimizer;
+    int microbatchsize;
+    LearningRateScheduler scheduler;  // or null
+    DoubleMatrix mX, mY;  // a micro-batch copied out of a larger batch, reused while its size is unchanged
+
+    /**
+     * @param net the network
+     * @param loss the loss
+     * @param optimizer an optimizer created for net
+     * @param microbatchsize the largest number of instances to run forward and backward on at once
+     */
+    public GradientAccumulator(Layer net, Loss loss, Optimizer optimizer, int microbatchsize) {
+        if (microbatchsize < 1) {
+            throw new IllegalArgumentException("microbatchsize must be positive: " + microbatchsize);
+        }
+        this.net = net;
+        this.loss = loss;
+        this.optimizer = optimizer;
+        this.microbatchsize = microbatchsize;
+    }
+
+    /**
+     * Set the learning rate of the optimizer with a scheduler before each update.
+     * @param scheduler a scheduler for the optimizer, or null to leave the learning rate alone
+     */
+    public void setScheduler(LearningRateScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Run one training step on a minibatch held in memory (reset the gradients, forward and
+     * backward on each micro-batch, update).
+     * @param X a [minibatch_size x input_dims] matrix
+     * @param Y a [minibatch_size x output_dims] matrix
+     * @return the loss of the minibatch
+     */
+    public double step(DoubleMatrix X, DoubleMatrix Y) {
+        int n = X.rows;
+        this.optimizer.resetGradients();
+        double lossVal = 0;
+        if (n <= this.microbatchsize) {
+            lossVal = this.accumulate(X, Y, 1);
+        } else {
+            for (int from = 0; from < n; from += this.microbatchsize) {
+                int to = Math.min(from + this.microbatchsize, n);
+                this.mX = DataParallelTrainer.rows(X, from, to, this.mX);
+                this.mY = DataParallelTrainer.rows(Y, from, to, this.mY);
+                lossVal += this.accumulate(this.mX, this.mY, (to - from) / (double) n);
+            }
+        }
+        if (this.scheduler != null) {
+            this.scheduler.step();
+        }
+        this.optimizer.updateWeights();
+        return lossVal;
+    }
+
+    /**
+     * Train for one epoch on minibatches of batchsize instances (the last one may be smaller),
+     * reading the dataset in micro-batches of microbatchsize instances, so that no more than
+     * that are ever assembled at once (a {@link minet.data.PrefetchingDataset} keeps prefetching,
+     * since the size asked for does not change). A micro-batch which straddles two minibatches
+     * is split between them, so batchsize should be a multiple of microbatchsize to avoid the
+     * copies. The dataset must be shuffled or reset beforehand.
+     * @return the total loss of the minibatches of the epoch
+     */
+    public double trainEpoch(Dataset data, int batchsize) {
+        int size = data.getSize();
+        int seen = 0;
+        double totalLoss = 0;
+        Pair<DoubleMatrix> batch = null;
+        int offset = 0;  // the rows of batch already trained on
+        this.optimizer.resetGradients();
+        while (seen < size) {
+            int n = Math.min(batchsize, size - seen);
+            int end = seen + n;
+            double lossVal = 0;
+            while (seen < end) {
+                if (batch == null || offset == batch.first.rows) {
+                    batch = data.getNextMiniBatch(this.microbatchsize);
+                    offset = 0;
+                    if (batch == null) {
+                        throw new IllegalStateException("the dataset ended after " + seen + " of " + size + " instances");
+                    }
+                }
+                int m = Math.min(batch.first.rows - offset, end - seen);
+                DoubleMatrix X = batch.first;
+                DoubleMatrix Y = batch.second;
+                if (m != X.rows) {
+                    this.mX = DataParallelTrainer.rows(X, offset, offset + m, this.mX);
+                    this.mY = DataParallelTrainer.rows(Y, offset, offset + m, this.mY);
+                    X = this.mX;
+                    Y = this.mY;
+                }
+                lossVal += this.accumulate(X, Y, m / (double) n);
+                offset += m;
+                seen += m;
+            }
+            if (this.scheduler != null) {
+                this.scheduler.step();
+            }
+            this.optimizer.updateWeightsAndResetGradients();
+            totalLoss += lossVal;
+        }
+        // let the dataset see the end of the epoch, so that it restarts from the beginning
+        data.getNextMiniBatch(this.microbatchsize);
+        return totalLoss;
+    }
+
+    /**
+     * Forward and backward on a micro-batch, adding weight times its gradient into the
+     * gradients of the network.
+     * @return weight times the loss of the micro-batch
+     */
+    double accumulate(DoubleMatrix X, DoubleMatrix Y, double weight) {
+        double lossVal = this.loss.forward(Y, this.net.forward(X));
+        DoubleMatrix gY = this.loss.backward();
+        if (weight != 1) {
+            gY.muli(weight);
+        }
+        this.net.backward(gY);
+        return weight * lossVal;
+    }
+}
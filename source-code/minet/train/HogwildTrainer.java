@@ -0,0 +1,370 @@
+// File: HogwildTrainer.java
+// Asynchronous lock-free SGD on several threads
+package minet.train;
+
+import minet.Dataset;
+import minet.data.PartitionDataset;
+import minet.layer.Layer;
+import minet.layer.Linear;
+import minet.layer.ReLU;
+import minet.layer.Sequential;
+import minet.layer.Workspace;
+import minet.loss.Loss;
+import minet.loss.SoftmaxCrossEntropy;
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SGD on several threads, each training a replica of the network (see {@link Layer#replicate()})
+ * on its own partition of the training set (see {@link PartitionDataset}), with its own
+ * gradients and activation buffers. The replicas share the weights of the network.
+ *
+ * In {@link Mode#HOGWILD} mode (Recht et al., 2011, "Hogwild!: A Lock-Free Approach to
+ * Parallelizing Stochastic Gradient Descent"), each thread applies its updates straight to
+ * the shared weight arrays, with no locking, while the other threads keep reading and
+ * updating them. The gradient a thread applies may thus have been computed on weights which
+ * other threads have updated since; the number of such updates is the staleness of the
+ * gradient.
+ *
+ * In {@link Mode#SYNCHRONOUS} mode, the threads wait for each other after each minibatch, and
+ * one update with the (size-weighted) mean of their gradients is applied, as if the network
+ * were trained on minibatches of nThreads x batchsize instances.
+ */
+public class HogwildTrainer {
+
+    public enum Mode { HOGWILD, SYNCHRONOUS }
+
+    Layer net;
+    Worker[] workers;
+    ExecutorService pool;
+    Mode mode;
+    double lr;
+
+    AtomicLong version = new AtomicLong();  // number of updates applied so far
+    boolean more;                           // SYNCHRONOUS: whether some thread had a minibatch
+    long nanos;                             // time spent in trainEpoch
+
+    /**
+     * @param net the network (its weights are trained, its gradients are unused)
+     * @param loss the loss; each thread uses {@link Loss#replicate()}
+     * @param learningRate the learning rate of the updates
+     * @param data the training set, split into one partition per thread
+     * @param nThreads the number of threads
+     * @param mode HOGWILD or SYNCHRONOUS
+     * @param seed the seed for shuffling the partitions
+     */
+    public HogwildTrainer(Layer net, Loss loss, double learningRate, Dataset data, int nThreads, Mode mode, long seed) {
+        this.net = net;
+        this.lr = learningRate;
+        this.mode = mode;
+        Dataset[] parts = PartitionDataset.split(data, nThreads);
+        this.workers = new Worker[nThreads];
+        for (int k = 0; k < nThreads; k++) {
+            this.workers[k] = new Worker(net.replicate(), loss.replicate(), parts[k], seed + k);
+        }
+        this.pool = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, "minet-hogwild");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Switch between asynchronous (HOGWILD) and synchronous updates, e.g. to compare their
+     * time to a given accuracy.
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Set learning rate.
+     * @param lr a double
+     */
+    public void setLearningRate(double lr) {
+        this.lr = lr;
+    }
+
+    /**
+     * Train for one epoch: each thread goes once through its (shuffled) partition.
+     * @param batchsize the number of instances per minibatch of each thread
+     * @return the total loss of the minibatches
+     */
+    public double trainEpoch(int batchsize) {
+        long t0 = System.nanoTime();
+        CyclicBarrier barrier = this.mode == Mode.SYNCHRONOUS
+                ? new CyclicBarrier(this.workers.length, this::applyMean) : null;
+        List<Future<Double>> done = new ArrayList<Future<Double>>();
+        for (Worker w : this.workers) {
+            done.add(this.pool.submit(() -> w.epoch(batchsize, barrier)));
+        }
+        double totalLoss = 0;
+        try {
+            for (Future<Double> f : done) {
+                totalLoss += f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        this.nanos += System.nanoTime() - t0;
+        return totalLoss;
+    }
+
+    /**
+     * Synchronous update: w -= lr * sum_k (rows_k / rows) * g_k, run by the last thread
+     * reaching the barrier.
+     */
+    void applyMean() {
+        int rows = 0;
+        for (Worker w : this.workers) {
+            rows += w.rows;
+        }
+        this.more = rows > 0;
+        if (rows == 0) {
+            return;
+        }
+        for (Worker w : this.workers) {
+            if (w.rows > 0) {
+                w.apply(this.lr * w.rows / rows);
+            }
+        }
+        this.version.incrementAndGet();
+    }
+
+    /**
+     * @return the number of updates applied to the shared weights so far
+     */
+    public long getUpdates() {
+        return this.version.get();
+    }
+
+    /**
+     * @return the mean number of updates applied by other threads between the moment a
+     *         gradient was computed from the weights and the moment it was applied
+     */
+    public double getMeanStaleness() {
+        long n = 0;
+        long sum = 0;
+        for (Worker w : this.workers) {
+            n += w.nSteps;
+            sum += w.stalenessSum;
+        }
+        return n == 0 ? 0 : sum / (double) n;
+    }
+
+    /**
+     * @return the largest staleness of a gradient
+     */
+    public long getMaxStaleness() {
+        long max = 0;
+        for (Worker w : this.workers) {
+            max = Math.max(max, w.maxStaleness);
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of instances trained on per second spent in {@link #trainEpoch(int)}
+     */
+    public double getSamplesPerSecond() {
+        long n = 0;
+        for (Worker w : this.workers) {
+            n += w.nSamples;
+        }
+        return n / Math.max(this.nanos * 1e-9, 1e-9);
+    }
+
+    /**
+     * @return a summary of the throughput and staleness metrics
+     */
+    public String report() {
+        return String.format("%s, %d threads: %.0f samples/s, %d updates, staleness mean %.2f max %d",
+                this.mode, this.workers.length, this.getSamplesPerSecond(), this.getUpdates(),
+                this.getMeanStaleness(), this.getMaxStaleness());
+    }
+
+    /**
+     * Stop the threads.
+     */
+    public void close() {
+        this.pool.shutdown();
+    }
+
+    /**
+     * A training thread: a replica of the network, its partition and its metrics.
+     */
+    class Worker {
+        Layer net;
+        Loss loss;
+        Dataset part;
+        Random rnd;
+        double[][] weights, grads;    // the shared weights and the private gradients
+        float[][] floatWeights, floatGrads;
+        int rows;                     // rows of the current minibatch, 0 if none
+
+        long nSteps, nSamples, stalenessSum, maxStaleness;
+
+        Worker(Layer net, Loss loss, Dataset part, long seed) {
+            this.net = net;
+            this.net.setWorkspace(new Workspace());
+            this.loss = loss;
+            this.part = part;
+            this.rnd = new Random(seed);
+            this.weights = arrays(net.getAllWeights(new LinkedList<DoubleMatrix>()));
+            this.grads = arrays(net.getAllGradients(new LinkedList<DoubleMatrix>()));
+            this.floatWeights = floatArrays(net.getAllFloatWeights(new LinkedList<FloatMatrix>()));
+            this.floatGrads = floatArrays(net.getAllFloatGradients(new LinkedList<FloatMatrix>()));
+        }
+
+        double epoch(int batchsize, CyclicBarrier barrier) throws InterruptedException, BrokenBarrierException {
+            this.part.shuffle(this.rnd);
+            double totalLoss = 0;
+            while (true) {
+                Pair<DoubleMatrix> batch = this.part.getNextMiniBatch(batchsize);
+                this.rows = batch == null ? 0 : batch.first.rows;
+                if (batch != null) {
+                    long v0 = version.get();
+                    for (double[] g : this.grads) {
+                        Arrays.fill(g, 0);
+                    }
+                    for (float[] g : this.floatGrads) {
+                        Arrays.fill(g, 0);
+                    }
+                    totalLoss += this.loss.forward(batch.second, this.net.forward(batch.first));
+                    this.net.backward(this.loss.backward());
+                    if (barrier == null) {
+                        this.apply(lr);
+                        long staleness = version.getAndIncrement() - v0;
+                        this.stalenessSum += staleness;
+                        this.maxStaleness = Math.max(this.maxStaleness, staleness);
+                    }
+                    this.nSteps++;
+                    this.nSamples += this.rows;
+                }
+                if (barrier != null) {
+                    // each step waits for all threads, until every partition is exhausted
+                    barrier.await();
+                    if (!more) {
+                        break;
+                    }
+                } else if (batch == null) {
+                    break;
+                }
+            }
+            return totalLoss;
+        }
+
+        /**
+         * w -= rate * g on the shared weights, without locking.
+         */
+        void apply(double rate) {
+            for (int p = 0; p < this.weights.length; p++) {
+                double[] w = this.weights[p];
+                double[] g = this.grads[p];
+                for (int i = 0; i < w.length; i++) {
+                    w[i] -= rate * g[i];
+                }
+            }
+            for (int p = 0; p < this.floatWeights.length; p++) {
+                float[] w = this.floatWeights[p];
+                float[] g = this.floatGrads[p];
+                float r = (float) rate;
+                for (int i = 0; i < w.length; i++) {
+                    w[i] -= r * g[i];
+                }
+            }
+        }
+    }
+
+    static double[][] arrays(List<DoubleMatrix> matrices) {
+        double[][] a = new double[matrices.size()][];
+        for (int p = 0; p < a.length; p++) {
+            a[p] = matrices.get(p).data;
+        }
+        return a;
+    }
+
+    static float[][] floatArrays(List<FloatMatrix> matrices) {
+        float[][] a = new float[matrices.size()][];
+        for (int p = 0; p < a.length; p++) {
+            a[p] = matrices.get(p).data;
+        }
+        return a;
+    }
+
+    /**
+     * @return the classification accuracy of the network on a dataset
+     */
+    static double accuracy(Layer net, Dataset data, int batchsize) {
+        data.reset();
+        net.setTraining(false);
+        int correct = 0;
+        Pair<DoubleMatrix> batch;
+        while ((batch = data.getNextMiniBatch(batchsize)) != null) {
+            int[] predicted = net.forward(batch.first).rowArgmaxs();
+            for (int i = 0; i < predicted.length; i++) {
+                if (batch.second.get(i) == predicted[i]) {
+                    correct++;
+                }
+            }
+        }
+        net.setTraining(true);
+        return correct / (double) data.getSize();
+    }
+
+    /**
+     * Compare the time to reach a dev accuracy in both modes.
+     * Usage: HogwildTrainer [seed] [train.txt] [dev.txt] [hogwild|sync] [threads] [target_accuracy]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 6) {
+            System.err.println("usage: HogwildTrainer [seed] [train.txt] [dev.txt] [hogwild|sync] [threads] [target_accuracy]");
+            return;
+        }
+        org.jblas.util.Random.seed(Integer.parseInt(args[0]));
+        Dataset trainset = Dataset.loadTxt(args[1]);
+        Dataset devset = Dataset.loadTxt(args[2]);
+        Mode mode = args[3].equals("sync") ? Mode.SYNCHRONOUS : Mode.HOGWILD;
+        int nThreads = Integer.parseInt(args[4]);
+        double target = Double.parseDouble(args[5]);
+
+        Sequential net = new Sequential(new Layer[] {
+            new Linear(trainset.getInputDims(), 1000, new Linear.WeightInitXavier()),
+            new ReLU(),
+            new Linear(1000, 10, new Linear.WeightInitXavier())
+        });
+        int batchsize = 100;
+        HogwildTrainer trainer = new HogwildTrainer(net, new SoftmaxCrossEntropy(), 0.1, trainset,
+                nThreads, mode, Integer.parseInt(args[0]));
+
+        for (int e = 0; e < 50; e++) {
+            double totalLoss = trainer.trainEpoch(batchsize);
+            double acc = accuracy(net, devset, 1000);
+            System.out.printf("epoch %d: %.2fs, total loss %.4f, dev accuracy %.4f (%s)\n",
+                    e, trainer.nanos * 1e-9, totalLoss, acc, trainer.report());
+            if (acc >= target) {
+                System.out.printf("accuracy %.4f reached in %.2fs\n", target, trainer.nanos * 1e-9);
+                break;
+            }
+        }
+        trainer.close();
+    }
+}
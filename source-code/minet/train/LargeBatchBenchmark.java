@@ -0,0 +1,98 @@
+// File: LargeBatchBenchmark.java
+// Large minibatch training with layer-wise adaptive optimizers
+package minet.train;
+
+import minet.Dataset;
+import minet.layer.Layer;
+import minet.layer.Linear;
+import minet.layer.Sequential;
+import minet.layer.Sigmoid;
+import minet.loss.SoftmaxCrossEntropy;
+import minet.optim.LAMB;
+import minet.optim.LARS;
+import minet.optim.LearningRateScheduler;
+import minet.optim.Optimizer;
+import minet.optim.SGD;
+import minet.util.CompressionReport;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Train the network of Part1 (784-1000-10, sigmoid) from the same initial weights for the
+ * same number of epochs, with SGD on minibatches of 1000 (as in Part1), then with SGD, LARS
+ * and LAMB on large minibatches, each with a linear warmup and a cosine decay of the learning
+ * rate. The large minibatches are run 1000 instances at a time (see {@link GradientAccumulator}).
+ * Reports the number of updates, the training time and the dev and test accuracies.
+ *
+ * <pre>
+ * java minet.train.LargeBatchBenchmark [seed] [train.txt] [dev.txt] [test.txt] [epochs] [batchsize]
+ * </pre>
+ */
+public class LargeBatchBenchmark {
+
+    interface Factory {
+        Optimizer create(Layer net);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 6) {
+            System.err.println("usage: LargeBatchBenchmark [seed] [train.txt] [dev.txt] [test.txt] [epochs] [batchsize]");
+            return;
+        }
+        int seed = Integer.parseInt(args[0]);
+        Dataset trainset = Dataset.loadTxt(args[1]);
+        Dataset devset = Dataset.loadTxt(args[2]);
+        Dataset testset = Dataset.loadTxt(args[3]);
+        int nEpochs = Integer.parseInt(args[4]);
+        int large = Integer.parseInt(args[5]);
+        int microbatchsize = 1000;
+
+        String[] names = new String[] {"SGD, batch 1000", "SGD, batch " + large, "LARS, batch " + large,
+                "LAMB, batch " + large};
+        int[] batchsizes = new int[] {1000, large, large, large};
+        // the learning rates of the large batches are scaled up with the batch size
+        double scale = large / 1000.;
+        double[] lrs = new double[] {1.0, scale, 2 * Math.sqrt(scale), 0.02 * Math.sqrt(scale)};
+        Factory[] optimizers = new Factory[] {
+            net -> new SGD(net, 1.0),
+            net -> new SGD(net, 1.0),
+            net -> new LARS(net, 1.0, 0.9, 0, 0.01),
+            net -> new LAMB(net, 1.0)
+        };
+
+        System.out.printf("%-20s %8s %10s %10s %10s%n", "", "updates", "train (s)", "dev acc", "test acc");
+        for (int c = 0; c < names.length; c++) {
+            org.jblas.util.Random.seed(seed);
+            Random rnd = new Random(seed);
+            Sequential net = new Sequential(new Layer[] {
+                new Linear(trainset.getInputDims(), 1000, new Linear.WeightInitXavier()),
+                new Sigmoid(),
+                new Linear(1000, 10, new Linear.WeightInitXavier())
+            });
+            net.createWorkspace(microbatchsize, trainset.getInputDims());
+            Optimizer optimizer = optimizers[c].create(net);
+            GradientAccumulator trainer = new GradientAccumulator(net, new SoftmaxCrossEntropy(), optimizer, microbatchsize);
+
+            int stepsPerEpoch = (trainset.getSize() + batchsizes[c] - 1) / batchsizes[c];
+            int totalSteps = nEpochs * stepsPerEpoch;
+            // a tenth of the updates for the warmup, but at least one update after it (e.g. a
+            // single update when the minibatch is the whole training set for one epoch)
+            int warmupSteps = Math.min(Math.max(1, totalSteps / 10), totalSteps - 1);
+            LearningRateScheduler scheduler = c == 0 ? LearningRateScheduler.constant(optimizer, lrs[c], 0)
+                    : LearningRateScheduler.cosine(optimizer, lrs[c], warmupSteps, totalSteps);
+            trainer.setScheduler(scheduler);
+
+            long t0 = System.nanoTime();
+            for (int e = 0; e < nEpochs; e++) {
+                trainset.shuffle(rnd);
+                trainer.trainEpoch(trainset, batchsizes[c]);
+            }
+            double seconds = (System.nanoTime() - t0) * 1e-9;
+
+            net.setTraining(false);
+            System.out.printf("%-20s %8d %10.2f %10.4f %10.4f%n", names[c], scheduler.getSteps(), seconds,
+                    CompressionReport.accuracy(net, devset, 1000), CompressionReport.accuracy(net, testset, 1000));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+// File: CompressionReport.java
+// Comparison of a network and its compressed version
+package minet.util;
+
+import minet.Dataset;
+import minet.layer.Layer;
+import minet.layer.QuantizedLinear;
+import minet.layer.Sequential;
+import minet.layer.SparseLinear;
+import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
+
+import java.util.LinkedList;
+
+/**
+ * Compare a trained network with a compressed version of it for inference (e.g. from
+ * {@link minet.quant.Quantizer} or {@link minet.prune.Pruner}): accuracy, time of the forward
+ * passes over a dataset, and size of the parameters.
+ */
+public class CompressionReport {
+
+    /**
+     * @param net the trained network
+     * @param compressed the compressed network
+     * @param label the name of the compressed version, e.g. "int8"
+     * @return a table of the accuracy, time and parameter size of both networks, and their ratios
+     */
+    public static String compare(Sequential net, Sequential compressed, String label, Dataset data, int batchsize) {
+        boolean training = net.isTraining();
+        net.setTraining(false);
+        double[] acc = new double[2];
+        double[] seconds = new double[2];
+        Sequential[] nets = new Sequential[] {net, compressed};
+        for (int k = 0; k < 2; k++) {
+            accuracy(nets[k], data, batchsize);  // warm-up
+            long t0 = System.nanoTime();
+            acc[k] = accuracy(nets[k], data, batchsize);
+            seconds[k] = (System.nanoTime() - t0) * 1e-9;
+        }
+        net.setTraining(training);
+        long[] bytes = new long[] {parameterBytes(net), parameterBytes(compressed)};
+
+        StringBuilder str = new StringBuilder();
+        str.append(String.format("%-8s %10s %12s %14s\n", "", "accuracy", "forward (s)", "params (KB)"));
+        str.append(String.format("%-8s %10.4f %12.3f %14.1f\n", "original", acc[0], seconds[0], bytes[0] / 1024.));
+        str.append(String.format("%-8s %10.4f %12.3f %14.1f\n", label, acc[1], seconds[1], bytes[1] / 1024.));
+        str.append(String.format("accuracy delta %+.4f, speedup %.2fx, size reduction %.2fx",
+                acc[1] - acc[0], seconds[0] / seconds[1], bytes[0] / (double) bytes[1]));
+        return str.toString();
+    }
+
+    /**
+     * @return the accuracy of a network on a dataset (in whatever mode the network is in)
+     */
+    public static double accuracy(Layer net, Dataset data, int batchsize) {
+        data.reset();
+        int correct = 0;
+        Pair<DoubleMatrix> batch;
+        while ((batch = data.getNextMiniBatch(batchsize)) != null) {
+            int[] predicted = net.forward(batch.first).rowArgmaxs();
+            for (int i = 0; i < predicted.length; i++) {
+                if (batch.second.get(i) == predicted[i]) {
+                    correct++;
+                }
+            }
+        }
+        return correct / (double) data.getSize();
+    }
+
+    /**
+     * @return the size of the parameters of a network in bytes
+     */
+    public static long parameterBytes(Sequential net) {
+        long bytes = 0;
+        for (DoubleMatrix w : net.getAllWeights(new LinkedList<DoubleMatrix>())) {
+            bytes += 8L * w.length;
+        }
+        for (FloatMatrix w : net.getAllFloatWeights(new LinkedList<FloatMatrix>())) {
+            bytes += 4L * w.length;
+        }
+        for (Layer layer : net.getLayers()) {
+            if (layer instanceof QuantizedLinear) {
+                bytes += ((QuantizedLinear) layer).getBytes();
+            } else if (layer instanceof SparseLinear) {
+                bytes += ((SparseLinear) layer).getBytes();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,93 @@
+// File: CsrMatrix.java
+// A matrix with an index of its nonzero entries
+package minet.util;
+
+import org.jblas.DoubleMatrix;
+
+import java.util.Arrays;
+
+/**
+ * A (dense, column-major) matrix which also holds its nonzero entries row by row in
+ * compressed sparse row (CSR) form: the nonzeros of row i are values[rowPtr[i] .. rowPtr[i+1])
+ * in the columns colIdx[rowPtr[i] .. rowPtr[i+1]), in increasing order.
+ *
+ * Datasets produce such matrices for the inputs of their minibatches when asked to (see
+ * {@link minet.Dataset#setSparseInputs(boolean)}), and {@link minet.layer.Linear} then only
+ * reads the rows of its weight matrix for the nonzero inputs. Since it is a DoubleMatrix,
+ * every other layer can use it as usual. The index describes the entries at the time of
+ * the last call of {@link #index()}, so the matrix must not be changed in between.
+ */
+public class CsrMatrix extends DoubleMatrix {
+
+    private static final long serialVersionUID = 3028364722343820481L;
+
+    public int[] rowPtr;    // [rows + 1]
+    public int[] colIdx;    // [nnz]
+    public double[] values; // [nnz]
+    public int nnz;
+
+    public CsrMatrix(int rows, int columns) {
+        super(rows, columns);
+        this.rowPtr = new int[rows + 1];
+        this.colIdx = new int[0];
+        this.values = new double[0];
+    }
+
+    /**
+     * @return a copy of X with its index
+     */
+    public static CsrMatrix fromDense(DoubleMatrix X) {
+        CsrMatrix S = new CsrMatrix(X.rows, X.columns);
+        System.arraycopy(X.data, 0, S.data, 0, X.length);
+        return S.index();
+    }
+
+    /**
+     * Rebuild the index from the entries of the matrix.
+     * @return this matrix
+     */
+    public CsrMatrix index() {
+        // count the nonzeros of each row, column by column
+        int[] ptr = this.rowPtr;
+        Arrays.fill(ptr, 0);
+        for (int j = 0, k = 0; j < this.columns; j++) {
+            for (int i = 0; i < this.rows; i++, k++) {
+                if (this.data[k] != 0) {
+                    ptr[i + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < this.rows; i++) {
+            ptr[i + 1] += ptr[i];
+        }
+        this.nnz = ptr[this.rows];
+        if (this.colIdx.length < this.nnz) {
+            this.colIdx = new int[this.nnz + this.nnz / 4];
+            this.values = new double[this.colIdx.length];
+        }
+
+        // fill in the entries, with ptr[i] as the next free place of row i (the columns
+        // are visited in increasing order, so each row ends up sorted)
+        for (int j = 0, k = 0; j < this.columns; j++) {
+            for (int i = 0; i < this.rows; i++, k++) {
+                double v = this.data[k];
+                if (v != 0) {
+                    int p = ptr[i]++;
+                    this.colIdx[p] = j;
+                    this.values[p] = v;
+                }
+            }
+        }
+        // shift back: ptr[i] is now the end of row i, i.e. the start of row i + 1
+        System.arraycopy(ptr, 0, ptr, 1, this.rows);
+        ptr[0] = 0;
+        return this;
+    }
+
+    /**
+     * @return the fraction of nonzero entries
+     */
+    public double getDensity() {
+        return this.length == 0 ? 0 : (double) this.nnz / this.length;
+    }
+}
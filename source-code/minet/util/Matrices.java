@@ -0,0 +1,65 @@
+// File: Matrices.java
+// Conversions between double and single precision matrices
+package minet.util;
+
+import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
+
+/**
+ * Conversions between double and single precision matrices.
+ */
+public class Matrices {
+
+    /**
+     * @return a new double precision copy of X
+     */
+    public static DoubleMatrix toDouble(FloatMatrix X) {
+        DoubleMatrix Y = new DoubleMatrix(X.rows, X.columns);
+        copy(X, Y);
+        return Y;
+    }
+
+    /**
+     * Copy X into Y if it has the shape of X, or else into a new matrix.
+     * @param Y a matrix to reuse, or null
+     * @return the copy
+     */
+    public static DoubleMatrix toDouble(FloatMatrix X, DoubleMatrix Y) {
+        if (Y == null || Y.rows != X.rows || Y.columns != X.columns) {
+            return toDouble(X);
+        }
+        copy(X, Y);
+        return Y;
+    }
+
+    /**
+     * Copy X into Y if it has the shape of X, or else into a new matrix.
+     * @param Y a matrix to reuse, or null
+     * @return the copy
+     */
+    public static FloatMatrix toFloat(DoubleMatrix X, FloatMatrix Y) {
+        if (Y == null || Y.rows != X.rows || Y.columns != X.columns) {
+            return X.toFloat();
+        }
+        copy(X, Y);
+        return Y;
+    }
+
+    /**
+     * Copy X into Y, which must have the same shape.
+     */
+    public static void copy(FloatMatrix X, DoubleMatrix Y) {
+        for (int i = 0; i < X.length; i++) {
+            Y.data[i] = X.data[i];
+        }
+    }
+
+    /**
+     * Copy X into Y, which must have the same shape.
+     */
+    public static void copy(DoubleMatrix X, FloatMatrix Y) {
+        for (int i = 0; i < X.length; i++) {
+            Y.data[i] = (float) X.data[i];
+        }
+    }
+}